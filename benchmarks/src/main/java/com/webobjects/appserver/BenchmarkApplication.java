@@ -0,0 +1,17 @@
+package com.webobjects.appserver;
+
+/**
+ * A bare application, for benchmarks that require WOApplication.application() (for example to create WORequests)
+ */
+
+public class BenchmarkApplication extends WOApplication {
+
+	/**
+	 * Prime a bare application instance, unless one has already been created
+	 */
+	public static void prime() {
+		if( WOApplication.application() == null ) {
+			WOApplication.primeApplication( null, null, BenchmarkApplication.class.getName() );
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package com.webobjects.appserver;
+
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.Callback;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks serving a file as a response body over loopback TCP: as a generic InputStream, as a FileInputStream (read through it's channel) and using WOJettyFileResponse.
+ * The client discards what it reads, so allocation (-prof gc) is mostly the server's.
+ * Of the two file sizes, only the larger one is above WOJettyFileResponse's memory mapping threshold (1MB).
+ *
+ * Run with: java -jar target/benchmarks.jar FileResponseBenchmark -prof gc
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FileResponseBenchmark {
+
+	/**
+	 * File size in bytes
+	 */
+	@Param({ "204800", "5242880" })
+	public int size;
+
+	private Path _file;
+	private Server _server;
+	private SocketChannel _channel;
+	private final ByteBuffer _buffer = ByteBuffer.allocateDirect( 256 * 1024 );
+
+	@Setup
+	public void setup() throws Exception {
+		final byte[] bytes = new byte[size];
+		ThreadLocalRandom.current().nextBytes( bytes );
+		_file = Files.createTempFile( "wo-jetty-benchmark", ".bin" );
+		Files.write( _file, bytes );
+
+		_server = new Server();
+		final ServerConnector connector = new ServerConnector( _server );
+		connector.setHost( "127.0.0.1" );
+		_server.addConnector( connector );
+		_server.setHandler( new Handler.Abstract() {
+
+			@Override
+			public boolean handle( Request request, Response response, Callback callback ) throws Exception {
+				response.setStatus( 200 );
+
+				switch( request.getHttpURI().getPath() ) {
+					// Wrapped, so it doesn't get detected as a FileInputStream
+					case "/inputStream" -> WOAdaptorJetty.WOJettyHandler.writeStream( response, new FilterInputStream( new FileInputStream( _file.toFile() ) ) {}, size, callback );
+					case "/fileInputStream" -> WOAdaptorJetty.WOJettyHandler.writeStream( response, new FileInputStream( _file.toFile() ), size, callback );
+					default -> WOJettyFileResponse.write( request, response, callback, _file );
+				}
+
+				return true;
+			}
+		} );
+		_server.start();
+
+		_channel = SocketChannel.open( new InetSocketAddress( "127.0.0.1", connector.getLocalPort() ) );
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		_channel.close();
+		_server.stop();
+		Files.deleteIfExists( _file );
+	}
+
+	@Benchmark
+	public long inputStream() throws IOException {
+		return get( "/inputStream" );
+	}
+
+	@Benchmark
+	public long fileInputStream() throws IOException {
+		return get( "/fileInputStream" );
+	}
+
+	@Benchmark
+	public long fileResponse() throws IOException {
+		return get( "/file" );
+	}
+
+	/**
+	 * Request the given path over our persistent connection, reading (and discarding) the response
+	 *
+	 * @return The number of bytes read
+	 */
+	private long get( final String path ) throws IOException {
+		_channel.write( ByteBuffer.wrap( ("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes( StandardCharsets.US_ASCII ) ) );
+
+		long read = 0;
+		long expected = -1;
+
+		while( expected < 0 || read < expected ) {
+			_buffer.clear();
+			final int n = _channel.read( _buffer );
+
+			if( n < 0 ) {
+				throw new IOException( "Connection closed mid response" );
+			}
+
+			// The headers arrive in the first read. They end with an empty line, followed by the body.
+			if( expected < 0 ) {
+				final int headerEnd = headerEnd( _buffer );
+
+				if( headerEnd < 0 ) {
+					throw new IOException( "Response headers not in first read" );
+				}
+
+				expected = headerEnd + size;
+			}
+
+			read += n;
+		}
+
+		return read;
+	}
+
+	private static int headerEnd( final ByteBuffer buffer ) {
+		for( int i = 3; i < buffer.position(); i++ ) {
+			if( buffer.get( i ) == '\n' && buffer.get( i - 2 ) == '\n' && buffer.get( i - 1 ) == '\r' && buffer.get( i - 3 ) == '\r' ) {
+				return i + 1;
+			}
+		}
+
+		return -1;
+	}
+}
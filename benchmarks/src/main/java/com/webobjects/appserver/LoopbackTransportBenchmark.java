@@ -0,0 +1,194 @@
+package com.webobjects.appserver;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.unixdomain.server.UnixDomainServerConnector;
+import org.eclipse.jetty.util.Callback;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks request round trips over loopback TCP and a Unix domain socket, the way a reverse proxy on the same host would talk to us.
+ * The handler writes a fixed body, so what's measured is the transport and Jetty's HTTP handling, not WO.
+ *
+ * Run with: java -jar target/benchmarks.jar LoopbackTransportBenchmark
+ * Client and server share the machine's cores (the client runs 4 threads), so note the core count along with any results.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class LoopbackTransportBenchmark {
+
+	/**
+	 * tcp (loopback) or unix (domain socket)
+	 */
+	@Param({ "tcp", "unix" })
+	public String transport;
+
+	/**
+	 * Response body size in bytes
+	 */
+	@Param({ "2048", "65536" })
+	public int size;
+
+	private Server _server;
+	private Path _socketPath;
+	private SocketAddress _address;
+
+	@Setup
+	public void setup() throws Exception {
+		final byte[] body = new byte[size];
+
+		_server = new Server();
+		_server.setHandler( new Handler.Abstract() {
+			@Override
+			public boolean handle( Request request, Response response, Callback callback ) {
+				response.setStatus( 200 );
+				response.getHeaders().put( "content-length", body.length );
+				response.write( true, ByteBuffer.wrap( body ), callback );
+				return true;
+			}
+		} );
+
+		if( "unix".equals( transport ) ) {
+			_socketPath = Files.createTempDirectory( "wo-jetty-benchmark" ).resolve( "jetty.sock" );
+			final UnixDomainServerConnector connector = new UnixDomainServerConnector( _server );
+			connector.setUnixDomainPath( _socketPath );
+			_server.addConnector( connector );
+			_server.start();
+			_address = UnixDomainSocketAddress.of( _socketPath );
+		}
+		else {
+			final ServerConnector connector = new ServerConnector( _server );
+			connector.setHost( "127.0.0.1" );
+			_server.addConnector( connector );
+			_server.start();
+			_address = new InetSocketAddress( "127.0.0.1", connector.getLocalPort() );
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		_server.stop();
+
+		if( _socketPath != null ) {
+			Files.deleteIfExists( _socketPath );
+			Files.deleteIfExists( _socketPath.getParent() );
+		}
+	}
+
+	/**
+	 * A client connection, one per benchmark thread
+	 */
+	@State(Scope.Thread)
+	public static class Client {
+
+		private static final ByteBuffer KEEP_ALIVE_REQUEST = ByteBuffer.wrap( "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes( StandardCharsets.US_ASCII ) );
+		private static final ByteBuffer CLOSE_REQUEST = ByteBuffer.wrap( "GET / HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes( StandardCharsets.US_ASCII ) );
+
+		private SocketChannel _channel;
+		private final ByteBuffer _buffer = ByteBuffer.allocateDirect( 128 * 1024 );
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			if( _channel != null ) {
+				_channel.close();
+			}
+		}
+
+		/**
+		 * Send a request and read the response, which we know to have a body of the given size
+		 */
+		int roundTrip( final SocketChannel channel, final ByteBuffer request, final int size ) throws IOException {
+			channel.write( request.duplicate() );
+
+			_buffer.clear();
+			int headerEnd = -1;
+
+			while( headerEnd < 0 || _buffer.position() < headerEnd + size ) {
+				if( channel.read( _buffer ) < 0 ) {
+					throw new IOException( "Connection closed mid response" );
+				}
+
+				if( headerEnd < 0 ) {
+					headerEnd = headerEnd( _buffer );
+				}
+			}
+
+			return _buffer.position();
+		}
+
+		/**
+		 * @return Position right after the response headers, or -1 if we haven't read all of them
+		 */
+		private static int headerEnd( final ByteBuffer buffer ) {
+			for( int i = 3; i < buffer.position(); i++ ) {
+				if( buffer.get( i ) == '\n' && buffer.get( i - 2 ) == '\n' && buffer.get( i - 1 ) == '\r' && buffer.get( i - 3 ) == '\r' ) {
+					return i + 1;
+				}
+			}
+
+			return -1;
+		}
+	}
+
+	/**
+	 * Request over a persistent connection, like a proxy keeping a pool of upstream connections
+	 */
+	@Benchmark
+	public int keepAlive( final Client client ) throws IOException {
+		if( client._channel == null ) {
+			client._channel = open();
+		}
+
+		return client.roundTrip( client._channel, Client.KEEP_ALIVE_REQUEST, size );
+	}
+
+	/**
+	 * Request over a new connection, like a proxy that doesn't pool connections. Over TCP, each one uses up an ephemeral port.
+	 */
+	@Benchmark
+	public int newConnection( final Client client ) throws IOException {
+		try( SocketChannel channel = open() ) {
+			return client.roundTrip( channel, Client.CLOSE_REQUEST, size );
+		}
+	}
+
+	private SocketChannel open() throws IOException {
+		final SocketChannel channel = SocketChannel.open( _address instanceof UnixDomainSocketAddress ? StandardProtocolFamily.UNIX : StandardProtocolFamily.INET );
+		channel.connect( _address );
+		return channel;
+	}
+}
@@ -0,0 +1,213 @@
+package com.webobjects.appserver;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.LocalConnector;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.Callback;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks conversion of Jetty requests to WORequests.
+ *
+ * requestToWORequest() runs the full conversion through Jetty's in-memory LocalConnector. Compare it to baselineRequest() (same request, no conversion) to see the conversion's share.
+ * requestToWORequestManyHeaders() does the same for a request carrying many headers, including repeated cookie lines. WORequest's constructor copies every header, so these are the cases that model WO.
+ *
+ * The headerMap* benchmarks compare the header map passed to WO with an eager copy into a HashMap (the adaptor's previous approach), both when reading a couple of headers and when reading all of them.
+ * Since WO iterates all headers, the ReadAll variants are the relevant ones. Run with -prof gc to compare their allocation per operation (gc.alloc.rate.norm).
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RequestConversionBenchmark {
+
+	private static final String HEADERS = """
+			Host: localhost\r
+			User-Agent: Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) AppleWebKit/605.1.15 (KHTML, like Gecko) Version/18.0 Safari/605.1.15\r
+			Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r
+			Accept-Language: en-GB,en;q=0.9\r
+			Accept-Encoding: gzip, deflate, br\r
+			Cookie: wosid=AbCdEfGhIjKlMnOp; woinst=-1\r
+			Referer: http://localhost/Apps/WebObjects/App.woa/wo/AbCdEfGhIjKlMnOp/0.1\r
+			Connection: keep-alive\r
+			\r
+			""";
+
+	/**
+	 * Headers of a request that's passed through a proxy or two, from a browser carrying analytics cookies
+	 */
+	private static final String MANY_HEADERS = HEADERS.replace( "\r\n\r\n", "\r\n" ) + """
+			Cache-Control: max-age=0\r
+			Upgrade-Insecure-Requests: 1\r
+			Sec-Fetch-Dest: document\r
+			Sec-Fetch-Mode: navigate\r
+			Sec-Fetch-Site: same-origin\r
+			Sec-Fetch-User: ?1\r
+			Sec-CH-UA: "Chromium";v="130", "Not?A_Brand";v="99"\r
+			Sec-CH-UA-Mobile: ?0\r
+			Sec-CH-UA-Platform: "macOS"\r
+			Priority: u=0, i\r
+			Cookie: _ga=GA1.1.123456789.1700000000; _gid=GA1.1.987654321.1700000000\r
+			Cookie: consent=analytics,marketing; theme=dark\r
+			X-Forwarded-For: 203.0.113.7, 198.51.100.2\r
+			X-Forwarded-Proto: https\r
+			X-Forwarded-Host: www.example.com\r
+			X-Forwarded-Port: 443\r
+			X-Real-IP: 203.0.113.7\r
+			X-Request-ID: 3f2b8c1e-9a47-4d2e-b6f0-5c8e1a2d7b94\r
+			Forwarded: for=203.0.113.7;proto=https;host=www.example.com\r
+			Via: 1.1 proxy-a, 1.1 proxy-b\r
+			DNT: 1\r
+			\r
+			""";
+
+	private static final String BASELINE_REQUEST = "GET /baseline/Apps/WebObjects/App.woa/wo/AbCdEfGhIjKlMnOp/1.3 HTTP/1.1\r\n" + HEADERS;
+	private static final String CONVERT_REQUEST = "GET /convert/Apps/WebObjects/App.woa/wo/AbCdEfGhIjKlMnOp/1.3 HTTP/1.1\r\n" + HEADERS;
+	private static final String CONVERT_MANY_HEADERS_REQUEST = "GET /convert/Apps/WebObjects/App.woa/wo/AbCdEfGhIjKlMnOp/1.3 HTTP/1.1\r\n" + MANY_HEADERS;
+
+	private HttpFields _headers;
+	private HttpFields _manyHeaders;
+	private Server _server;
+	private LocalConnector _connector;
+
+	@Setup
+	public void setup() throws Exception {
+		BenchmarkApplication.prime();
+
+		_headers = HttpFields.build()
+				.add( "Host", "localhost" )
+				.add( "User-Agent", "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) AppleWebKit/605.1.15 (KHTML, like Gecko) Version/18.0 Safari/605.1.15" )
+				.add( "Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8" )
+				.add( "Accept-Language", "en-GB,en;q=0.9" )
+				.add( "Accept-Encoding", "gzip, deflate, br" )
+				.add( "Cookie", "wosid=AbCdEfGhIjKlMnOp; woinst=-1" )
+				.add( "Referer", "http://localhost/Apps/WebObjects/App.woa/wo/AbCdEfGhIjKlMnOp/0.1" )
+				.add( "Connection", "keep-alive" )
+				.asImmutable();
+
+		final HttpFields.Mutable manyHeaders = HttpFields.build();
+
+		for( final String line : MANY_HEADERS.split( "\r\n" ) ) {
+			final int colonIndex = line.indexOf( ':' );
+			manyHeaders.add( line.substring( 0, colonIndex ), line.substring( colonIndex + 1 ).trim() );
+		}
+
+		_manyHeaders = manyHeaders.asImmutable();
+
+		_server = new Server();
+		_connector = new LocalConnector( _server );
+		_server.addConnector( _connector );
+		_server.setHandler( new Handler.Abstract() {
+
+			@Override
+			public boolean handle( Request request, Response response, Callback callback ) throws Exception {
+
+				if( request.getHttpURI().getPath().startsWith( "/convert" ) ) {
+					WOAdaptorJetty.WOJettyHandler.requestToWORequest( request );
+				}
+
+				response.setStatus( 200 );
+				callback.succeeded();
+				return true;
+			}
+		} );
+		_server.start();
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		_server.stop();
+	}
+
+	@Benchmark
+	public Map<String, List<String>> headerMapFromHttpFields() {
+		return WOAdaptorJetty.WOJettyHandler.headerMapFromHttpFields( _headers );
+	}
+
+	@Benchmark
+	public void headerMapReadFew( final Blackhole blackhole ) {
+		final Map<String, List<String>> map = WOAdaptorJetty.WOJettyHandler.headerMapFromHttpFields( _headers );
+		blackhole.consume( map.get( "cookie" ) );
+		blackhole.consume( map.get( "host" ) );
+	}
+
+	@Benchmark
+	public void headerMapReadAll( final Blackhole blackhole ) {
+		readAll( WOAdaptorJetty.WOJettyHandler.headerMapFromHttpFields( _headers ), blackhole );
+	}
+
+	@Benchmark
+	public void headerMapReadAllManyHeaders( final Blackhole blackhole ) {
+		readAll( WOAdaptorJetty.WOJettyHandler.headerMapFromHttpFields( _manyHeaders ), blackhole );
+	}
+
+	@Benchmark
+	public void eagerHeaderMapReadFew( final Blackhole blackhole ) {
+		final Map<String, List<String>> map = eagerHeaderMap( _headers );
+		blackhole.consume( map.get( "Cookie" ) );
+		blackhole.consume( map.get( "Host" ) );
+	}
+
+	@Benchmark
+	public void eagerHeaderMapReadAll( final Blackhole blackhole ) {
+		readAll( eagerHeaderMap( _headers ), blackhole );
+	}
+
+	private static void readAll( final Map<String, List<String>> map, final Blackhole blackhole ) {
+		for( final Map.Entry<String, List<String>> entry : map.entrySet() ) {
+			blackhole.consume( entry.getKey() );
+			blackhole.consume( entry.getValue() );
+		}
+	}
+
+	/**
+	 * The eager copy the adaptor used to make of every request's headers, kept as a baseline
+	 */
+	private static Map<String, List<String>> eagerHeaderMap( final HttpFields httpFields ) {
+		final Map<String, List<String>> map = new HashMap<>();
+
+		for( final HttpField httpField : httpFields ) {
+			map.put( httpField.getName(), httpField.getValueList() );
+		}
+
+		return map;
+	}
+
+	@Benchmark
+	public String requestToWORequest() throws Exception {
+		return _connector.getResponse( CONVERT_REQUEST );
+	}
+
+	@Benchmark
+	public String requestToWORequestManyHeaders() throws Exception {
+		return _connector.getResponse( CONVERT_MANY_HEADERS_REQUEST );
+	}
+
+	@Benchmark
+	public String baselineRequest() throws Exception {
+		return _connector.getResponse( BASELINE_REQUEST );
+	}
+}
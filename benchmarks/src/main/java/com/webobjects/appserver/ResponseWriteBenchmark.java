@@ -0,0 +1,118 @@
+package com.webobjects.appserver;
+
+import java.io.ByteArrayInputStream;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.LocalConnector;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.Callback;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.webobjects.foundation.NSArray;
+import com.webobjects.foundation.NSData;
+
+/**
+ * Benchmarks writing WOResponses to Jetty: the header copy, and the NSData and InputStream body paths (through Jetty's in-memory LocalConnector)
+ *
+ * Header copying (including the pre-encoded header cache, see WOJettyHeaderCache) is measured by: java -jar target/benchmarks.jar ResponseWriteBenchmark.copyHeaders -prof gc
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ResponseWriteBenchmark {
+
+	private static final String DATA_REQUEST = "GET /data HTTP/1.1\r\nHost: localhost\r\n\r\n";
+	private static final String STREAM_REQUEST = "GET /stream HTTP/1.1\r\nHost: localhost\r\n\r\n";
+
+	/**
+	 * Response body size in bytes (small page, medium page, large download)
+	 */
+	@Param({ "2048", "204800", "5242880" })
+	public int size;
+
+	private byte[] _bytes;
+	private NSData _data;
+	private Map<String, NSArray<String>> _woHeaders;
+	private Server _server;
+	private LocalConnector _connector;
+
+	@Setup
+	public void setup() throws Exception {
+		_bytes = new byte[size];
+		ThreadLocalRandom.current().nextBytes( _bytes );
+		_data = new NSData( _bytes );
+
+		// Typical headers of a WO component action response
+		_woHeaders = Map.of(
+				"content-type", new NSArray<>( "text/html; charset=UTF-8" ),
+				"cache-control", new NSArray<>( "private, no-cache, no-store, must-revalidate, max-age=0" ),
+				"expires", new NSArray<>( "Thu, 01 Jan 1970 00:00:00 GMT" ),
+				"pragma", new NSArray<>( "no-cache" ),
+				"x-frame-options", new NSArray<>( "SAMEORIGIN" ),
+				"set-cookie", new NSArray<>( new String[] { "wosid=AbCdEfGhIjKlMnOp; version=\"1\"; path=/Apps/WebObjects/App.woa", "woinst=-1; version=\"1\"; path=/Apps/WebObjects/App.woa" } ) );
+
+		_server = new Server();
+		_connector = new LocalConnector( _server );
+		_server.addConnector( _connector );
+		_server.setHandler( new Handler.Abstract() {
+
+			@Override
+			public boolean handle( Request request, Response response, Callback callback ) throws Exception {
+				response.setStatus( 200 );
+
+				if( request.getHttpURI().getPath().equals( "/stream" ) ) {
+					WOAdaptorJetty.WOJettyHandler.writeStream( response, new ByteArrayInputStream( _bytes ), _bytes.length, callback );
+				}
+				else {
+					WOAdaptorJetty.WOJettyHandler.writeData( request, response, _data, callback );
+				}
+
+				return true;
+			}
+		} );
+		_server.start();
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		_server.stop();
+	}
+
+	@Benchmark
+	public HttpFields.Mutable copyHeaders() {
+		final HttpFields.Mutable jettyHeaders = HttpFields.build();
+		WOAdaptorJetty.WOJettyHandler.copyHeaders( _woHeaders, jettyHeaders );
+		return jettyHeaders;
+	}
+
+	@Benchmark
+	public String writeData() throws Exception {
+		return _connector.getResponse( DATA_REQUEST );
+	}
+
+	@Benchmark
+	public String writeStream() throws Exception {
+		return _connector.getResponse( STREAM_REQUEST );
+	}
+}
@@ -0,0 +1,177 @@
+package com.webobjects.appserver;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.VirtualThreadPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks request round trips against a dispatch that blocks (like one waiting on EOF or session checkout), with requests run on Jetty's platform thread pool or on virtual threads (JettyVirtualThreads).
+ * The thread pool is set up the way WOAdaptorJetty sets it up, with maxThreads as both the pool's size and the virtual thread limit (JettyVirtualThreadsMax). The client keeps more connections busy than that, so dispatching is the bottleneck.
+ *
+ * throughput() reports requests per second, latency() the distribution of round trip times (look at p0.99).
+ * With blocking=synchronized, the dispatch blocks while holding a monitor (as much of WO and EOF does). Before JDK 24, that pins the virtual thread to it's carrier, so virtual threads can run no more blocked requests at a time than there are carriers (cores).
+ * The benchmarks are built for Java 25, where it doesn't, but the comparison shows what virtual threads would do for an application still running on JDK 21.
+ *
+ * Run with: java -jar target/benchmarks.jar SlowDispatchBenchmark
+ * Client and server share the machine's cores, so note the core count and JDK version along with any results.
+ */
+
+@State(Scope.Benchmark)
+@Fork(1)
+@Threads(SlowDispatchBenchmark.CLIENT_CONNECTIONS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SlowDispatchBenchmark {
+
+	/**
+	 * Number of client threads, each with it's own connection and one request in flight at a time
+	 */
+	static final int CLIENT_CONNECTIONS = 256;
+
+	/**
+	 * platform (Jetty's thread pool) or virtual (bounded virtual threads)
+	 */
+	@Param({ "platform", "virtual" })
+	public String threads;
+
+	/**
+	 * Size of the platform thread pool, and maximum number of requests running on virtual threads. 200 is the default of both.
+	 */
+	@Param({ "200" })
+	public int maxThreads;
+
+	/**
+	 * Time (in milliseconds) each dispatch spends blocked
+	 */
+	@Param({ "10", "100" })
+	public int dispatchMillis;
+
+	/**
+	 * sleep (blocking without holding a monitor) or synchronized (blocking while holding one)
+	 */
+	@Param({ "sleep", "synchronized" })
+	public String blocking;
+
+	private Server _server;
+	private InetSocketAddress _address;
+
+	@Setup
+	public void setup() throws Exception {
+		final QueuedThreadPool threadPool = new QueuedThreadPool( maxThreads );
+
+		if( "virtual".equals( threads ) ) {
+			final VirtualThreadPool virtualThreadPool = new VirtualThreadPool( maxThreads );
+			threadPool.setVirtualThreadsExecutor( virtualThreadPool );
+			threadPool.addBean( virtualThreadPool );
+		}
+
+		final boolean holdMonitor = "synchronized".equals( blocking );
+		final byte[] body = "OK".getBytes( StandardCharsets.US_ASCII );
+
+		_server = new Server( threadPool );
+		_server.setHandler( new Handler.Abstract() {
+			@Override
+			public boolean handle( Request request, Response response, Callback callback ) throws Exception {
+				if( holdMonitor ) {
+					final Object monitor = new Object();
+
+					synchronized( monitor ) {
+						Thread.sleep( dispatchMillis );
+					}
+				}
+				else {
+					Thread.sleep( dispatchMillis );
+				}
+
+				response.setStatus( 200 );
+				response.getHeaders().put( "content-length", body.length );
+				response.write( true, ByteBuffer.wrap( body ), callback );
+				return true;
+			}
+		} );
+
+		final ServerConnector connector = new ServerConnector( _server, 1, 1 );
+		connector.setHost( "127.0.0.1" );
+		connector.setAcceptQueueSize( CLIENT_CONNECTIONS );
+		_server.addConnector( connector );
+		_server.start();
+		_address = new InetSocketAddress( "127.0.0.1", connector.getLocalPort() );
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		_server.stop();
+	}
+
+	/**
+	 * A persistent client connection, one per benchmark thread
+	 */
+	@State(Scope.Thread)
+	public static class Connection {
+
+		private static final ByteBuffer REQUEST = ByteBuffer.wrap( "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes( StandardCharsets.US_ASCII ) );
+
+		private final LoopbackTransportBenchmark.Client _client = new LoopbackTransportBenchmark.Client();
+		private SocketChannel _channel;
+
+		@Setup(Level.Trial)
+		public void setup( final SlowDispatchBenchmark benchmark ) throws IOException {
+			_channel = SocketChannel.open( benchmark._address );
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			_channel.close();
+		}
+
+		int roundTrip() throws IOException {
+			return _client.roundTrip( _channel, REQUEST, 2 );
+		}
+	}
+
+	/**
+	 * Requests completed per second
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public int throughput( final Connection connection ) throws IOException {
+		return connection.roundTrip();
+	}
+
+	/**
+	 * Round trip times, including time spent waiting for a thread (or virtual thread permit)
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public int latency( final Connection connection ) throws IOException {
+		return connection.roundTrip();
+	}
+}
@@ -0,0 +1,83 @@
+package com.webobjects.appserver.websocket;
+
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.websocket.api.Callback;
+import org.eclipse.jetty.websocket.api.Session;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks message dispatch from WOJettyWebSocketListener to a WOWebSocketHandler, using a stub Jetty session
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class WebSocketDispatchBenchmark {
+
+	private static final String TEXT_MESSAGE = "{\"type\":\"update\",\"id\":12345,\"values\":[1,2,3,4,5,6,7,8,9,10]}";
+
+	private WOJettyWebSocketListener _listener;
+	private ByteBuffer _binaryMessage;
+
+	/**
+	 * Counts received messages, so the handler's work can't be optimized away
+	 */
+	public long received;
+
+	@Setup
+	public void setup() {
+		final WOWebSocketHandler handler = new WOWebSocketHandler() {
+
+			@Override
+			public void onTextMessage( WOWebSocketSession session, String message ) {
+				received += message.length();
+			}
+
+			@Override
+			public void onBinaryMessage( WOWebSocketSession session, ByteBuffer data ) {
+				received += data.remaining();
+			}
+		};
+
+		_listener = new WOJettyWebSocketListener( handler, (WOWebSocketHandshakeRequest)null );
+		_listener.onWebSocketOpen( stubSession() );
+		_binaryMessage = ByteBuffer.allocate( 1024 );
+	}
+
+	/**
+	 * @return A Jetty session that's always open and ignores everything else
+	 */
+	private static Session stubSession() {
+		return (Session)Proxy.newProxyInstance( Session.class.getClassLoader(), new Class<?>[] { Session.class }, ( proxy, method, args ) -> switch( method.getName() ) {
+			case "isOpen" -> true;
+			case "hashCode" -> System.identityHashCode( proxy );
+			case "equals" -> proxy == args[0];
+			default -> null;
+		} );
+	}
+
+	@Benchmark
+	public void textMessage() {
+		_listener.onWebSocketText( TEXT_MESSAGE );
+	}
+
+	@Benchmark
+	public void binaryMessage() {
+		_listener.onWebSocketBinary( _binaryMessage.duplicate(), Callback.NOOP );
+	}
+}
@@ -0,0 +1,57 @@
+package com.webobjects.appserver.websocket;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks getting a handler for a new WebSocket connection from WOWebSocketRegistry: a new instance through a cached constructor handle, a shared instance, and (as a baseline) reflective instantiation.
+ *
+ * Run with: java -jar target/benchmarks.jar WebSocketHandlerCreationBenchmark -prof gc
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class WebSocketHandlerCreationBenchmark {
+
+	public static class BenchmarkHandler extends WOWebSocketHandler {}
+
+	@Setup
+	public void setup() {
+		WOWebSocketRegistry.register( "/ws/new", BenchmarkHandler.class );
+		WOWebSocketRegistry.register( "/ws/shared", new BenchmarkHandler() );
+	}
+
+	@Benchmark
+	public WOWebSocketHandler newHandler() {
+		return WOWebSocketRegistry.createHandlerInstance( "/ws/new", null );
+	}
+
+	@Benchmark
+	public WOWebSocketHandler sharedHandler() {
+		return WOWebSocketRegistry.createHandlerInstance( "/ws/shared", null );
+	}
+
+	/**
+	 * Baseline, the reflective instantiation the registry used to do for each connection
+	 */
+	@Benchmark
+	public WOWebSocketHandler reflectiveNewHandler() throws ReflectiveOperationException {
+		final WOWebSocketHandler handler = WOWebSocketRegistry.handlerForPath( "/ws/new" ).getDeclaredConstructor().newInstance();
+		handler._setApplication( null );
+		return handler;
+	}
+}
@@ -1,39 +1,68 @@
 package com.webobjects.appserver;
 
-import java.io.BufferedInputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.BindException;
+import java.net.ConnectException;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
+import org.eclipse.jetty.alpn.server.ALPNServerConnectionFactory;
 import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http2.HTTP2Cipher;
+import org.eclipse.jetty.http2.server.AbstractHTTP2ServerConnectionFactory;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.http2.server.HTTP2ServerConnectionFactory;
+import org.eclipse.jetty.io.ByteBufferPool;
 import org.eclipse.jetty.io.Content;
+import org.eclipse.jetty.server.ConnectionFactory;
 import org.eclipse.jetty.server.ConnectionMetaData;
 import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.HttpConfiguration;
 import org.eclipse.jetty.server.HttpConnectionFactory;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.server.SecureRequestCustomizer;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.SslConnectionFactory;
+import org.eclipse.jetty.server.handler.GracefulHandler;
+import org.eclipse.jetty.unixdomain.server.UnixDomainServerConnector;
+import org.eclipse.jetty.util.BufferUtil;
 import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.VirtualThreadPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.webobjects.appserver._private.WOInputStreamData;
-import com.webobjects.appserver._private.WONoCopyPushbackInputStream;
 import com.webobjects.appserver._private.WOProperties;
 import com.webobjects.appserver.websocket.WOJettyWebSocketSupport;
 import com.webobjects.foundation.NSArray;
 import com.webobjects.foundation.NSData;
 import com.webobjects.foundation.NSDictionary;
 import com.webobjects.foundation.NSForwardException;
+import com.webobjects.foundation.NSMutableData;
+
+import er.extensions.foundation.ERXProperties;
 
 /**
  * A WOAdaptor based on Jetty.
@@ -52,6 +81,85 @@ public class WOAdaptorJetty extends WOAdaptor {
 	 */
 	private static final boolean ENABLE_WEBSOCKETS = true;
 
+	/**
+	 * If true, web server resources are served directly by the adaptor, rather than going through WO's request dispatching. See WOJettyResourceHandler.
+	 */
+	private static final boolean STATIC_RESOURCES_ENABLED = ERXProperties.booleanForKeyWithDefault( "JettyStaticResources", false );
+
+	/**
+	 * If true, eligible responses are gzip compressed. See WOJettyCompression.
+	 */
+	static final boolean COMPRESSION_ENABLED = ERXProperties.booleanForKeyWithDefault( "JettyCompression", false );
+
+	/**
+	 * If true, the default connector accepts HTTP/2 cleartext (h2c), both with prior knowledge and through an HTTP/1.1 upgrade. HTTP/2 is also negotiated (ALPN) on the TLS connector, if enabled.
+	 */
+	private static final boolean HTTP2_ENABLED = ERXProperties.booleanForKeyWithDefault( "JettyHTTP2", false );
+
+	/**
+	 * Maximum number of concurrent HTTP/2 streams per connection
+	 */
+	private static final int HTTP2_MAX_CONCURRENT_STREAMS = ERXProperties.intForKeyWithDefault( "JettyHTTP2MaxConcurrentStreams", 128 );
+
+	/**
+	 * HTTP/2 initial flow control window (in bytes) of each stream. -1 for Jetty's default.
+	 */
+	private static final int HTTP2_INITIAL_STREAM_RECV_WINDOW = ERXProperties.intForKeyWithDefault( "JettyHTTP2InitialStreamRecvWindow", -1 );
+
+	/**
+	 * HTTP/2 initial flow control window (in bytes) of each connection. -1 for Jetty's default.
+	 */
+	private static final int HTTP2_INITIAL_SESSION_RECV_WINDOW = ERXProperties.intForKeyWithDefault( "JettyHTTP2InitialSessionRecvWindow", -1 );
+
+	/**
+	 * Port for a TLS connector. The TLS connector is only added if set.
+	 */
+	private static final int SSL_PORT = ERXProperties.intForKeyWithDefault( "JettySSLPort", 0 );
+
+	/**
+	 * Path to the keystore holding the TLS connector's certificate
+	 */
+	private static final String SSL_KEYSTORE_PATH = ERXProperties.stringForKey( "JettySSLKeyStorePath" );
+
+	/**
+	 * Password for the TLS connector's keystore
+	 */
+	private static final String SSL_KEYSTORE_PASSWORD = ERXProperties.stringForKey( "JettySSLKeyStorePassword" );
+
+	/**
+	 * Type of the TLS connector's keystore
+	 */
+	private static final String SSL_KEYSTORE_TYPE = ERXProperties.stringForKeyWithDefault( "JettySSLKeyStoreType", "PKCS12" );
+
+	/**
+	 * Path of a Unix domain socket to listen on, e.g. for a reverse proxy on the same host. The Unix domain socket connector is only added if set.
+	 */
+	private static final String UNIX_SOCKET_PATH = ERXProperties.stringForKey( "JettyUnixSocketPath" );
+
+	/**
+	 * If true (and UNIX_SOCKET_PATH is set) we only listen on the Unix domain socket, not on the TCP port. WOPort is still reported as our port, so direct connect URLs stay the same.
+	 */
+	private static final boolean UNIX_SOCKET_ONLY = ERXProperties.booleanForKeyWithDefault( "JettyUnixSocketOnly", false );
+
+	/**
+	 * If true, the default connector binds it's port with SO_REUSEPORT set, when the server starts.
+	 * Lets several instances listen on the same port, with the kernel spreading connections between them, so a new instance can start accepting before the old one drains.
+	 * All instances sharing a port must have it set, and run as the same user.
+	 * On shutdown, the listener is closed before draining so new connections go to the other instances. Note that Linux still resets connections that were already queued on the closed listener, but not yet accepted.
+	 */
+	private static final boolean REUSE_PORT = ERXProperties.booleanForKeyWithDefault( "JettyReusePort", false );
+
+	/**
+	 * If true, Jetty will invoke our handler (and thus WOApplication.dispatchRequest()) on virtual threads rather than on platform threads from it's pool.
+	 * Useful when requests spend a lot of time blocked (EOF fetches, waiting for session checkout etc.) since a blocked virtual thread doesn't pin a platform thread.
+	 */
+	private static final boolean VIRTUAL_THREADS_ENABLED = ERXProperties.booleanForKeyWithDefault( "JettyVirtualThreads", false );
+
+	/**
+	 * Maximum number of virtual threads that can be running requests at the same time. Keeps virtual thread mode from letting unbounded concurrency into the application.
+	 */
+	private static final int VIRTUAL_THREADS_MAX = ERXProperties.intForKeyWithDefault( "JettyVirtualThreadsMax", 200 );
+
 	/**
 	 * The Jetty server instance
 	 */
@@ -64,7 +172,19 @@ public class WOAdaptorJetty extends WOAdaptor {
 		super( name, config );
 		_port = port( config );
 
-		checkPortAvailable( _port );
+		if( UNIX_SOCKET_PATH != null ) {
+			checkUnixSocketAvailable( Path.of( UNIX_SOCKET_PATH ) );
+		}
+
+		if( !unixSocketOnly() ) {
+			// With SO_REUSEPORT, another instance listening on the port is expected, so we only check that we'll be able to share it. The connector binds when the server starts.
+			if( REUSE_PORT ) {
+				checkReusePortSupported();
+			}
+			else {
+				checkPortAvailable( _port );
+			}
+		}
 	}
 
 	/**
@@ -108,6 +228,74 @@ public class WOAdaptorJetty extends WOAdaptor {
 		}
 	}
 
+	/**
+	 * Jetty silently binds without SO_REUSEPORT if the platform doesn't support it, which would make a second instance fail to bind. So we fail early instead.
+	 */
+	private static void checkReusePortSupported() {
+		try( ServerSocketChannel channel = ServerSocketChannel.open()) {
+			if( !channel.supportedOptions().contains( StandardSocketOptions.SO_REUSEPORT ) ) {
+				throw new IllegalStateException( "JettyReusePort is set but SO_REUSEPORT is not supported on this platform" );
+			}
+		}
+		catch( IOException e ) {
+			throw new NSForwardException( e );
+		}
+	}
+
+	/**
+	 * If a file exists at the socket path, check if anyone is listening on it. If so, fail like checkPortAvailable() does.
+	 * If it's a socket that refuses connections, it's left over from an instance that didn't shut down cleanly, and we delete it so we can bind. Anything else (a regular file, or a socket we can't connect to for other reasons) also fails, since it isn't ours to delete.
+	 */
+	private static void checkUnixSocketAvailable( final Path path ) {
+
+		if( Files.exists( path, LinkOption.NOFOLLOW_LINKS ) ) {
+			if( !isSocket( path ) ) {
+				throw new NSForwardException( new BindException( "Unix domain socket path exists and is not a socket: " + path ) );
+			}
+
+			try( SocketChannel channel = SocketChannel.open( UnixDomainSocketAddress.of( path ) )) {
+				throw new NSForwardException( new BindException( "Unix domain socket in use: " + path ) );
+			}
+			catch( ConnectException e ) {
+				try {
+					logger.info( "Deleting stale Unix domain socket %s".formatted( path ) );
+					Files.delete( path );
+				}
+				catch( IOException e2 ) {
+					throw new NSForwardException( e2 );
+				}
+			}
+			catch( IOException e ) {
+				throw new NSForwardException( e );
+			}
+		}
+	}
+
+	/**
+	 * @return true if the file at the given path is a socket (checked using it's unix:mode file type bits, since Java has no direct way of asking)
+	 */
+	private static boolean isSocket( final Path path ) {
+
+		if( Files.isRegularFile( path, LinkOption.NOFOLLOW_LINKS ) ) {
+			return false;
+		}
+
+		try {
+			final int mode = (Integer)Files.getAttribute( path, "unix:mode", LinkOption.NOFOLLOW_LINKS );
+			return (mode & 0170000) == 0140000;
+		}
+		catch( IOException | UnsupportedOperationException | IllegalArgumentException e ) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return true if the default server only listens on the Unix domain socket
+	 */
+	private static boolean unixSocketOnly() {
+		return UNIX_SOCKET_ONLY && UNIX_SOCKET_PATH != null;
+	}
+
 	@Override
 	public boolean dispatchesRequestsConcurrently() {
 		return true;
@@ -118,7 +306,7 @@ public class WOAdaptorJetty extends WOAdaptor {
 		logger.info( "Stopping %s".formatted( getClass().getSimpleName() ) );
 
 		try {
-			_server.stop();
+			WOJettyShutdown.shutdown( _server );
 		}
 		catch( Exception e ) {
 			// Wrapping in RuntimeException always feels a little dirty, but I think it's nicer than no handling at all
@@ -136,14 +324,15 @@ public class WOAdaptorJetty extends WOAdaptor {
 
 			_server.start();
 
-			if( _port == 0 ) {
-				// FIXME: We probably need to check if the connector is a ServerConnector. Or if the server has any connectors at all // Hugi 2025-11-16
-				final ServerConnector connector = (ServerConnector)_server.getConnectors()[0];
+			// If we're not listening on a TCP port, we keep reporting the port we were given
+			if( _port == 0 && _server.getConnectors().length > 0 && _server.getConnectors()[0] instanceof ServerConnector connector ) {
 				_port = connector.getLocalPort();
 				WOApplication.application().setPort( _port );
 				logger.info( "Running on port %s".formatted( _port ) );
 			}
 
+			WOJettyShutdown.setReady();
+
 			// FIXME: WOHost? // Hugi 2025-11-15
 			// WOApplication.application()._setHost( InetAddress.getLocalHost().getHostName() );
 		}
@@ -165,6 +354,11 @@ public class WOAdaptorJetty extends WOAdaptor {
 	 */
 	public Server createJettyServer() {
 		if( WOApplication.application() instanceof JettyServerProvider jsp ) {
+
+			if( REUSE_PORT ) {
+				logger.warn( "JettyReusePort only applies to the default server, not to one from a JettyServerProvider" );
+			}
+
 			return jsp.createJettyServer( _port );
 		}
 
@@ -175,32 +369,188 @@ public class WOAdaptorJetty extends WOAdaptor {
 	 * @return Our default way of constructing a server, if the user doesn't provide his own
 	 */
 	private static Server createDefaultJettyServer( int port ) {
-		Server server = new Server();
+		// Connector and thread pool tuning, see WOJettyServerConfiguration
+		final WOJettyServerConfiguration configuration = WOJettyServerConfiguration.fromProperties();
+		logger.info( "Server configuration: %s".formatted( configuration ) );
+
+		Server server = new Server( createThreadPool( configuration ) );
 
 		final HttpConfiguration config = new HttpConfiguration();
 		config.setSendServerVersion( false ); // Not sending the server software/version is good practice for security
+		configuration.applyTo( config );
 
-		final HttpConnectionFactory connectionFactory = new HttpConnectionFactory( config );
+		if( !unixSocketOnly() ) {
+			final ServerConnector connector = new ServerConnector( server, configuration.acceptors(), configuration.selectors(), cleartextConnectionFactories( config ) );
+			connector.setPort( port );
+			connector.setIdleTimeout( configuration.idleTimeout() );
+			// connector.setHost( null ); // FIXME: WOHost? // Hugi 2025-11-15
 
-		final ServerConnector connector = new ServerConnector( server, connectionFactory );
-		connector.setPort( port );
-		// connector.setHost( null ); // FIXME: WOHost? // Hugi 2025-11-15
-		server.addConnector( connector );
+			// Bound when the server starts, so we don't take connections before we're ready to accept them
+			if( REUSE_PORT ) {
+				connector.setReusePort( true );
+			}
+
+			server.addConnector( connector );
+		}
+
+		if( UNIX_SOCKET_PATH != null ) {
+			final UnixDomainServerConnector connector = new UnixDomainServerConnector( server, configuration.acceptors(), configuration.selectors(), cleartextConnectionFactories( config ) );
+			connector.setIdleTimeout( configuration.idleTimeout() );
+			connector.setUnixDomainPath( Path.of( UNIX_SOCKET_PATH ) );
+			server.addConnector( connector );
+			logger.info( "Unix domain socket connector enabled at %s%s".formatted( UNIX_SOCKET_PATH, unixSocketOnly() ? " (no TCP port)" : "" ) );
+		}
+
+		if( SSL_PORT > 0 ) {
+			server.addConnector( createSslConnector( server, config, configuration ) );
+		}
 
 		Handler handler = new WOJettyHandler();
 
+		// If enabled, admission control limits the number of requests reaching dispatchRequest()
+		if( WOJettyAdmissionHandler.MAX_REQUESTS > 0 ) {
+			handler = new WOJettyAdmissionHandler( handler );
+		}
+
+		// If enabled, resource requests get served before they reach WO
+		if( STATIC_RESOURCES_ENABLED ) {
+			handler = new WOJettyResourceHandler( handler );
+		}
+
+		// If enabled, streamed responses (the ones WOJettyCompression can't compress in memory) get compressed on the fly
+		if( COMPRESSION_ENABLED ) {
+			handler = WOJettyCompression.createCompressionHandler( handler );
+		}
+
 		// If websockets are enabled, we wrap the handler with WS upgrade capabilities
 		if( ENABLE_WEBSOCKETS ) {
 			handler = WOJettyWebSocketSupport.createWebSocketHandler( server, handler );
 		}
 
+		// Counts in-flight requests, so shutdown can wait for them. Requests arriving once shutdown has begun get a 503.
+		handler = new GracefulHandler( handler );
+
+		// If enabled, readiness is served in front of everything else, so it keeps answering while we drain
+		if( WOJettyShutdown.READINESS_PATH != null ) {
+			handler = new WOJettyShutdown.ReadinessHandler( handler );
+		}
+
+		// If enabled, metrics are served in front of everything else, so scrapes don't count towards (or get held up by) the requests they measure
+		if( WOJettyMetrics.ENABLED ) {
+			WOJettyMetrics.registerMBean( server );
+
+			if( WOJettyMetrics.PROMETHEUS_PATH != null ) {
+				handler = new WOJettyMetrics.PrometheusHandler( handler );
+			}
+		}
+
 		server.setHandler( handler );
 
+		configuration.registerMBean( server );
+
 		return server;
 	}
 
+	/**
+	 * @return Connection factories for a cleartext connector. Each connector gets it's own.
+	 */
+	private static ConnectionFactory[] cleartextConnectionFactories( final HttpConfiguration config ) {
+		final HttpConnectionFactory connectionFactory = new HttpConnectionFactory( config );
+
+		// With h2c following HTTP/1.1, the connector accepts both HTTP/1.1 upgrades to h2c and h2c with prior knowledge
+		if( HTTP2_ENABLED ) {
+			return new ConnectionFactory[] { connectionFactory, configureHTTP2( new HTTP2CServerConnectionFactory( config ) ) };
+		}
+
+		return new ConnectionFactory[] { connectionFactory };
+	}
+
+	/**
+	 * @return A TLS connector listening on SSL_PORT. Negotiates HTTP/2 using ALPN if HTTP/2 is enabled, otherwise serves HTTP/1.1
+	 */
+	private static ServerConnector createSslConnector( final Server server, final HttpConfiguration config, final WOJettyServerConfiguration configuration ) {
+
+		if( SSL_KEYSTORE_PATH == null ) {
+			throw new IllegalArgumentException( "JettySSLPort is set but JettySSLKeyStorePath is not. You must provide a keystore to enable TLS" );
+		}
+
+		final SslContextFactory.Server sslContextFactory = new SslContextFactory.Server();
+		sslContextFactory.setKeyStorePath( SSL_KEYSTORE_PATH );
+		sslContextFactory.setKeyStorePassword( SSL_KEYSTORE_PASSWORD );
+		sslContextFactory.setKeyStoreType( SSL_KEYSTORE_TYPE );
+
+		final HttpConfiguration sslConfig = new HttpConfiguration( config );
+		sslConfig.addCustomizer( new SecureRequestCustomizer() );
+
+		final HttpConnectionFactory http11 = new HttpConnectionFactory( sslConfig );
+
+		final ServerConnector connector;
+
+		if( HTTP2_ENABLED ) {
+			// Cipher suite ordering as required by HTTP/2 (RFC 7540 section 9.2.2)
+			sslContextFactory.setCipherComparator( HTTP2Cipher.COMPARATOR );
+
+			final ALPNServerConnectionFactory alpn = new ALPNServerConnectionFactory( "h2", http11.getProtocol() );
+			alpn.setDefaultProtocol( http11.getProtocol() );
+
+			final SslConnectionFactory tls = new SslConnectionFactory( sslContextFactory, alpn.getProtocol() );
+			connector = new ServerConnector( server, configuration.acceptors(), configuration.selectors(), tls, alpn, configureHTTP2( new HTTP2ServerConnectionFactory( sslConfig ) ), http11 );
+		}
+		else {
+			final SslConnectionFactory tls = new SslConnectionFactory( sslContextFactory, http11.getProtocol() );
+			connector = new ServerConnector( server, configuration.acceptors(), configuration.selectors(), tls, http11 );
+		}
+
+		connector.setPort( SSL_PORT );
+		connector.setIdleTimeout( configuration.idleTimeout() );
+		logger.info( "TLS connector enabled on port %s%s".formatted( SSL_PORT, HTTP2_ENABLED ? " (h2, http/1.1)" : "" ) );
+		return connector;
+	}
+
+	/**
+	 * @return The given HTTP/2 connection factory, configured with our stream concurrency and flow control settings
+	 */
+	private static <E extends AbstractHTTP2ServerConnectionFactory> E configureHTTP2( final E factory ) {
+		factory.setMaxConcurrentStreams( HTTP2_MAX_CONCURRENT_STREAMS );
+
+		if( HTTP2_INITIAL_STREAM_RECV_WINDOW > 0 ) {
+			factory.setInitialStreamRecvWindow( HTTP2_INITIAL_STREAM_RECV_WINDOW );
+		}
+
+		if( HTTP2_INITIAL_SESSION_RECV_WINDOW > 0 ) {
+			factory.setInitialSessionRecvWindow( HTTP2_INITIAL_SESSION_RECV_WINDOW );
+		}
+
+		return factory;
+	}
+
+	/**
+	 * @return The thread pool used by the server. If virtual threads are enabled, blocking work (i.e. our handler) gets executed on bounded virtual threads.
+	 */
+	private static QueuedThreadPool createThreadPool( final WOJettyServerConfiguration configuration ) {
+		final QueuedThreadPool threadPool = configuration.newThreadPool();
+
+		if( VIRTUAL_THREADS_ENABLED ) {
+			// VirtualThreadPool limits the number of concurrently running virtual threads using a semaphore, so requests past the limit wait for a permit
+			final VirtualThreadPool virtualThreadPool = new VirtualThreadPool( VIRTUAL_THREADS_MAX );
+			virtualThreadPool.setName( "wo-virtual" );
+			threadPool.setVirtualThreadsExecutor( virtualThreadPool );
+
+			// setVirtualThreadsExecutor() doesn't manage the executor's lifecycle, and a VirtualThreadPool rejects tasks until started. As a bean, it gets started and stopped with the thread pool.
+			threadPool.addBean( virtualThreadPool );
+			logger.info( "Dispatching requests on virtual threads (max %s concurrent)".formatted( VIRTUAL_THREADS_MAX ) );
+		}
+
+		return threadPool;
+	}
+
 	public static class WOJettyHandler extends Handler.Abstract {
 
+		/**
+		 * Size of the buffers a FileInputStream's content is read into
+		 */
+		private static final int FILE_BUFFER_SIZE = 64 * 1024;
+
 		@Override
 		public boolean handle( Request request, Response response, Callback callback ) throws Exception {
 			return doRequest( request, response, callback );
@@ -208,11 +558,17 @@ public class WOAdaptorJetty extends WOAdaptor {
 
 		private boolean doRequest( final Request jettyRequest, final Response jettyResponse, Callback callback ) throws IOException {
 
+			final long start = System.nanoTime();
+
 			final WORequest woRequest = requestToWORequest( jettyRequest );
 
+			final long converted = System.nanoTime();
+
 			// This is where the application logic will perform it's actual work
 			final WOResponse woResponse = WOApplication.application().dispatchRequest( woRequest );
 
+			final long dispatched = System.nanoTime();
+
 			// FIXME: Experimental functionality for passing control through to JEtty
 			if( woResponse.userInfoForKey( "wo-unhandled-response" ) != null ) {
 				return false;
@@ -220,10 +576,61 @@ public class WOAdaptorJetty extends WOAdaptor {
 
 			jettyResponse.setStatus( woResponse.status() );
 
-			for( final Entry<String, NSArray<String>> entry : woResponse.headers().entrySet() ) {
+			copyHeaders( woResponse.headers(), jettyResponse.getHeaders() );
+
+			// A file set using WOJettyFileResponse takes precedence over the response's other content
+			final Path file = WOJettyFileResponse.file( woResponse );
+			final boolean streamed = file != null || woResponse.contentInputStream() != null;
+			final long bytesOut;
+
+			if( file != null ) {
+				bytesOut = WOJettyFileResponse.write( jettyRequest, jettyResponse, callback, file );
+			}
+			else if( streamed ) {
+				final long contentLength = woResponse.contentInputStreamLength(); // If an InputStream is present, the stream's length must be present as well
+
+				if( contentLength == -1 ) {
+					throw new IllegalArgumentException( "WOResponse.contentInputStream() is set but contentInputLength has not been set. You must provide the content length when serving an InputStream" );
+				}
+
+				writeStream( jettyResponse, woResponse.contentInputStream(), contentLength, callback );
+				bytesOut = contentLength;
+			}
+			else {
+				bytesOut = writeData( jettyRequest, jettyResponse, woResponse.content(), callback );
+			}
+
+			if( WOJettyMetrics.ENABLED ) {
+				// Note that asynchronous writes (streams, large bodies) may still be in progress here, so the write phase measures the time spent initiating the write
+				WOJettyMetrics.record( converted - start, dispatched - converted, System.nanoTime() - dispatched, woResponse.status(), jettyRequest.getLength(), bytesOut, streamed );
+			}
+
+			return true;
+		}
+
+		/**
+		 * Copy headers from a WOResponse to the Jetty response
+		 */
+		static void copyHeaders( final Map<String, NSArray<String>> woHeaders, final HttpFields.Mutable jettyHeaders ) {
+			for( final Entry<String, NSArray<String>> entry : woHeaders.entrySet() ) {
 				final String headerName = entry.getKey();
 				final NSArray<String> headerValues = entry.getValue();
 
+				// Most headers have a single value, which we add directly (pre-encoded, if it's a header whose values repeat across responses). See WOJettyHeaderCache
+				if( headerValues.count() == 1 ) {
+					final String headerValue = headerValues.objectAtIndex( 0 );
+					final HttpField cachedField = WOJettyHeaderCache.field( headerName, headerValue );
+
+					if( cachedField != null ) {
+						jettyHeaders.add( cachedField );
+					}
+					else {
+						jettyHeaders.add( headerName, headerValue );
+					}
+
+					continue;
+				}
+
 				// Note: You'd think you could always copy headers using the following logic, adding all the header values at the same time:
 				// 		jettyResponse.getHeaders().add( headerName, headerValues );
 				// However, using this method, Jetty will construct a single header and put all the values into a comma separated list.
@@ -232,77 +639,155 @@ public class WOAdaptorJetty extends WOAdaptor {
 				// For this reason, we add the set-cookie header one value at a time, each in it's own separate header
 				if( "set-cookie".equals( headerName ) ) {
 					for( final String headerValue : headerValues ) {
-						jettyResponse.getHeaders().add( headerName, headerValue );
+						jettyHeaders.add( headerName, headerValue );
 					}
 				}
 				else {
-					jettyResponse.getHeaders().add( headerName, headerValues );
+					jettyHeaders.add( headerName, headerValues );
 				}
 			}
+		}
 
-			if( woResponse.contentInputStream() != null ) {
-				final long contentLength = woResponse.contentInputStreamLength(); // If an InputStream is present, the stream's length must be present as well
+		/**
+		 * Write a response body from an InputStream of the given length
+		 */
+		static void writeStream( final Response jettyResponse, final InputStream stream, final long contentLength, final Callback callback ) {
+			jettyResponse.getHeaders().put( "content-length", String.valueOf( contentLength ) );
 
-				if( contentLength == -1 ) {
-					throw new IllegalArgumentException( "WOResponse.contentInputStream() is set but contentInputLength has not been set. You must provide the content length when serving an InputStream" );
-				}
+			final Content.Source cs;
 
-				jettyResponse.getHeaders().put( "content-length", String.valueOf( contentLength ) );
+			// A plain FileInputStream gets read through it's channel, from it's current position, into pooled direct buffers, skipping the copy through a heap array.
+			// Only the exact class, since a subclass might alter what's read.
+			if( stream.getClass() == FileInputStream.class ) {
+				final FileChannel channel = ((FileInputStream)stream).getChannel();
+				final ByteBufferPool.Sized bufferPool = new ByteBufferPool.Sized( jettyResponse.getRequest().getComponents().getByteBufferPool(), true, FILE_BUFFER_SIZE );
 
+				// The offset is relative to the channel's current position
+				cs = Content.Source.from( bufferPool, channel, 0, contentLength );
+			}
+			else {
 				// Content.Source.from() handles buffering internally via ByteBufferPool
 				// No need to wrap in BufferedInputStream (would cause double-buffering)
-				final Content.Source cs = Content.Source.from( woResponse.contentInputStream() );
-				Content.copy( cs, jettyResponse, callback );
+				cs = Content.Source.from( stream );
 			}
-			else {
-				final NSData responseContent = woResponse.content();
 
-				jettyResponse.getHeaders().put( "content-length", String.valueOf( responseContent.length() ) );
+			Content.copy( cs, jettyResponse, callback );
+		}
+
+		/**
+		 * Write a response body from NSData
+		 *
+		 * @return The number of body bytes sent (after compression, if compressed)
+		 */
+		static long writeData( final Request jettyRequest, final Response jettyResponse, final NSData responseContent, final Callback callback ) throws IOException {
+
+			jettyResponse.getHeaders().put( "content-length", String.valueOf( responseContent.length() ) );
 
-				try( final OutputStream out = Response.asBufferedOutputStream( jettyRequest, jettyResponse )) {
-					responseContent.writeToStream( out );
+			if( isInMemoryData( responseContent ) ) {
+				// Hand NSData's backing bytes directly to Jetty, avoiding the copy into an intermediate output buffer
+				final ByteBufferCapturingOutputStream capture = new ByteBufferCapturingOutputStream();
+				responseContent.writeToStream( capture );
+
+				List<ByteBuffer> body = capture.buffers();
+
+				if( COMPRESSION_ENABLED ) {
+					body = WOJettyCompression.compress( jettyRequest, jettyResponse.getHeaders(), body );
 				}
 
-				callback.succeeded();
+				// Measured before writing, since writing consumes the buffers
+				final long length = length( body );
+				writeBuffers( jettyResponse, body, 0, callback );
+				return length;
 			}
 
-			return true;
+			try( final OutputStream out = Response.asBufferedOutputStream( jettyRequest, jettyResponse )) {
+				responseContent.writeToStream( out );
+			}
+
+			callback.succeeded();
+			return responseContent.length();
 		}
 
 		/**
-		 * @return the given Request converted to a WORequest
+		 * @return true if the given data is a plain in-memory NSData, meaning writeToStream() hands it's backing array to the stream rather than a reused buffer
 		 */
-		public static WORequest requestToWORequest( final Request jettyRequest ) {
+		private static boolean isInMemoryData( final NSData data ) {
+			final Class<?> dataClass = data.getClass();
+			return dataClass == NSData.class || dataClass == NSMutableData.class;
+		}
 
-			final ConnectionMetaData meta = jettyRequest.getConnectionMetaData();
+		private static long length( final List<ByteBuffer> buffers ) {
+			long length = 0;
 
-			final String method = jettyRequest.getMethod();
-			final String uri = jettyRequest.getHttpURI().getPathQuery();
-			final String httpVersion = meta.getHttpVersion().asString();
-			final Map<String, List<String>> headers = headerMapFromJettyRequest( jettyRequest );
+			for( final ByteBuffer buffer : buffers ) {
+				length += buffer.remaining();
+			}
 
-			final NSData contentData;
+			return length;
+		}
 
-			final long length = jettyRequest.getLength();
+		/**
+		 * Write the given buffers to the response, one after another, the last one completing the response
+		 */
+		private static void writeBuffers( final Response jettyResponse, final List<ByteBuffer> buffers, final int index, final Callback callback ) {
 
-			if( length > 0 ) {
+			if( buffers.isEmpty() ) {
+				jettyResponse.write( true, BufferUtil.EMPTY_BUFFER, callback );
+				return;
+			}
 
-				// FIXME: Missing support for larger request bodies (limitations imposed by WONoCopyPushbackInputStream and WOInputStreamData) // Hugi 2025-11-15
-				if( length > Integer.MAX_VALUE ) {
-					throw new IllegalArgumentException( "Request content length %s exceeds the size of an int. Unfortunately, we currently can't handle that".formatted( length ) );
-				}
+			final boolean last = index == buffers.size() - 1;
 
-				// All of this stream wrapping is required for WO to be happy. Yay!
-				final InputStream jettyStream = Request.asInputStream( jettyRequest );
-				final InputStream bufferedStream = new BufferedInputStream( jettyStream );
-				final WONoCopyPushbackInputStream wrappedStream = new WONoCopyPushbackInputStream( bufferedStream, (int)length );
-				contentData = new WOInputStreamData( wrappedStream, (int)length );
+			if( last ) {
+				jettyResponse.write( true, buffers.get( index ), callback );
 			}
 			else {
-				contentData = NSData.EmptyData;
+				jettyResponse.write( false, buffers.get( index ), Callback.from( () -> writeBuffers( jettyResponse, buffers, index + 1, callback ), callback::failed ) );
+			}
+		}
+
+		/**
+		 * An OutputStream that doesn't copy anything, it just keeps the arrays written to it, wrapped as ByteBuffers.
+		 * Only safe to use with writers that don't reuse the arrays they pass to write(), such as an in-memory NSData writing it's backing array.
+		 */
+		private static class ByteBufferCapturingOutputStream extends OutputStream {
+
+			private final List<ByteBuffer> _buffers = new ArrayList<>( 1 );
+
+			@Override
+			public void write( int b ) {
+				_buffers.add( ByteBuffer.wrap( new byte[] { (byte)b } ) );
+			}
+
+			@Override
+			public void write( byte[] b, int off, int len ) {
+				if( len > 0 ) {
+					_buffers.add( ByteBuffer.wrap( b, off, len ) );
+				}
 			}
 
-			final WORequest worequest = WOApplication.application().createRequest( method, uri, httpVersion, headers, contentData, null );
+			public List<ByteBuffer> buffers() {
+				return _buffers;
+			}
+		}
+
+		/**
+		 * @return the given Request converted to a WORequest
+		 */
+		public static WORequest requestToWORequest( final Request jettyRequest ) {
+
+			final ConnectionMetaData meta = jettyRequest.getConnectionMetaData();
+
+			final String method = jettyRequest.getMethod();
+			final String uri = jettyRequest.getHttpURI().getPathQuery();
+			final String httpVersion = meta.getHttpVersion().asString();
+			final Map<String, List<String>> headers = headerMapFromJettyRequest( jettyRequest );
+
+			// Bodies too large for WO's content data get passed to the app in the request's userInfo. See WOJettyRequestBody
+			final Map<String, Object> userInfo = new HashMap<>();
+			final NSData contentData = WOJettyRequestBody.contentData( jettyRequest, userInfo );
+
+			final WORequest worequest = WOApplication.application().createRequest( method, uri, httpVersion, headers, contentData, userInfo.isEmpty() ? null : userInfo );
 
 			populateAddresses( meta, worequest );
 
@@ -329,13 +814,14 @@ public class WOAdaptorJetty extends WOAdaptor {
 		 * @return The headers from the Request as a Map
 		 */
 		private static Map<String, List<String>> headerMapFromJettyRequest( final Request jettyRequest ) {
-			final Map<String, List<String>> map = new HashMap<>();
-
-			for( final HttpField httpField : jettyRequest.getHeaders() ) {
-				map.put( httpField.getName(), httpField.getValueList() );
-			}
+			return headerMapFromHttpFields( jettyRequest.getHeaders() );
+		}
 
-			return map;
+		/**
+		 * @return The given headers as a Map. This is a view, header values are only constructed when read. See WOJettyHeaderMap
+		 */
+		static Map<String, List<String>> headerMapFromHttpFields( final HttpFields httpFields ) {
+			return new WOJettyHeaderMap( httpFields );
 		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,130 @@
+package com.webobjects.appserver;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.server.handler.QoSHandler;
+import org.eclipse.jetty.util.Callback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import er.extensions.foundation.ERXProperties;
+
+/**
+ * Admission control in front of WO's request dispatching.
+ *
+ * Limits the number of requests being dispatched at the same time. Requests past the limit wait in a bounded queue, for a bounded time.
+ * Requests that don't fit in the queue, or wait too long, are failed fast with a 503 and a retry-after header, rather than piling up and slowing everyone down.
+ * When a slot frees up, queued resource and health check requests are admitted before other requests.
+ */
+
+public class WOJettyAdmissionHandler extends QoSHandler {
+
+	private static final Logger logger = LoggerFactory.getLogger( WOJettyAdmissionHandler.class );
+
+	/**
+	 * Maximum number of requests being dispatched concurrently. 0 (the default) disables admission control.
+	 */
+	static final int MAX_REQUESTS = ERXProperties.intForKeyWithDefault( "JettyAdmissionMaxRequests", 0 );
+
+	/**
+	 * Maximum number of requests waiting for admission. Requests past this get rejected immediately.
+	 */
+	private static final int MAX_QUEUED = ERXProperties.intForKeyWithDefault( "JettyAdmissionMaxQueued", 1024 );
+
+	/**
+	 * Maximum time (in milliseconds) a request can wait for admission before being rejected
+	 */
+	private static final long MAX_QUEUE_TIME = ERXProperties.longForKeyWithDefault( "JettyAdmissionMaxQueueTime", 10000 );
+
+	/**
+	 * Value of the retry-after header (in seconds) sent with rejections
+	 */
+	private static final int RETRY_AFTER = ERXProperties.intForKeyWithDefault( "JettyAdmissionRetryAfter", 5 );
+
+	/**
+	 * Request handler keys of requests admitted before others
+	 */
+	private static final List<String> PRIORITY_REQUEST_HANDLER_KEYS = List.of( ERXProperties.stringForKeyWithDefault( "JettyAdmissionPriorityRequestHandlerKeys", "res,wr,_wr_" ).split( "," ) );
+
+	/**
+	 * Path prefixes of requests admitted before others (e.g. a health check URL)
+	 */
+	private static final List<String> PRIORITY_PATHS = List.of( ERXProperties.stringForKeyWithDefault( "JettyAdmissionPriorityPaths", "" ).split( "," ) );
+
+	private static final int PRIORITY_HIGH = 1;
+	private static final int PRIORITY_NORMAL = 0;
+
+	public WOJettyAdmissionHandler( final Handler handler ) {
+		super( handler );
+		setMaxRequestCount( MAX_REQUESTS );
+		setMaxSuspendedRequestCount( MAX_QUEUED );
+		setMaxSuspend( Duration.ofMillis( MAX_QUEUE_TIME ) );
+		logger.info( "Admission control enabled. Max concurrent requests: %s, max queued: %s, max queue time: %sms".formatted( MAX_REQUESTS, MAX_QUEUED, MAX_QUEUE_TIME ) );
+	}
+
+	@Override
+	protected int getPriority( final Request request ) {
+		final String path = request.getHttpURI().getPath();
+
+		for( final String priorityPath : PRIORITY_PATHS ) {
+			if( !priorityPath.isEmpty() && path.startsWith( priorityPath ) ) {
+				return PRIORITY_HIGH;
+			}
+		}
+
+		final int woaIndex = path.indexOf( ".woa/" );
+
+		if( woaIndex != -1 ) {
+			final int keyStart = woaIndex + 5;
+			final int keyEnd = path.indexOf( '/', keyStart );
+			final String requestHandlerKey = keyEnd == -1 ? path.substring( keyStart ) : path.substring( keyStart, keyEnd );
+
+			if( PRIORITY_REQUEST_HANDLER_KEYS.contains( requestHandlerKey ) ) {
+				return PRIORITY_HIGH;
+			}
+		}
+
+		return PRIORITY_NORMAL;
+	}
+
+	/**
+	 * Invoked for requests that didn't fit in the queue
+	 */
+	@Override
+	protected void reject( final Request request, final Response response, final Callback callback, final int status ) {
+		response.getHeaders().put( HttpHeader.RETRY_AFTER, RETRY_AFTER );
+		super.reject( request, response, callback, status );
+	}
+
+	/**
+	 * Invoked for queued requests that timed out (or failed on resumption)
+	 */
+	@Override
+	protected void failSuspended( final Request request, final Response response, final Callback callback, final int status, final Throwable failure ) {
+
+		if( status == getRejectStatusCode() ) {
+			response.getHeaders().put( HttpHeader.RETRY_AFTER, RETRY_AFTER );
+		}
+
+		super.failSuspended( request, response, callback, status, failure );
+	}
+
+	/**
+	 * @return Number of requests currently waiting for admission
+	 */
+	public int queuedRequestCount() {
+		return getSuspendedRequestCount();
+	}
+
+	/**
+	 * @return Total number of requests rejected, either because the queue was full or because they waited too long
+	 */
+	public long rejectedRequestCount() {
+		return getTotalExceededRequestCount() + getTotalExpiredRequestCount();
+	}
+}
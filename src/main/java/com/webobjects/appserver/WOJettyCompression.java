@@ -0,0 +1,358 @@
+package com.webobjects.appserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+import org.eclipse.jetty.compression.gzip.GzipCompression;
+import org.eclipse.jetty.compression.gzip.GzipEncoderConfig;
+import org.eclipse.jetty.compression.server.CompressionConfig;
+import org.eclipse.jetty.compression.server.CompressionHandler;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import er.extensions.foundation.ERXProperties;
+
+/**
+ * Gzip compression of response bodies.
+ *
+ * Compressed representations of cacheable responses (ones that carry caching headers and don't set cookies) are kept in a bounded cache, keyed by a hash of their content.
+ * That way, a resource or cacheable page that's served repeatedly gets compressed once rather than on every request.
+ *
+ * That applies to bodies WO hands us in memory (NSData). Bodies we stream (static resources, file responses and contentInputStreams) are compressed on the fly by the Jetty CompressionHandler from createCompressionHandler(),
+ * using the same minimum size, level and content types. Those aren't cached and don't show up in our compression metrics.
+ */
+
+public class WOJettyCompression {
+
+	private static final Logger logger = LoggerFactory.getLogger( WOJettyCompression.class );
+
+	/**
+	 * Responses smaller than this (in bytes) are not worth compressing
+	 */
+	private static final int MIN_SIZE = ERXProperties.intForKeyWithDefault( "JettyCompressionMinSize", 1024 );
+
+	/**
+	 * Deflate compression level (1-9)
+	 */
+	private static final int LEVEL = ERXProperties.intForKeyWithDefault( "JettyCompressionLevel", 6 );
+
+	/**
+	 * Maximum total size (in bytes) of compressed content kept in the cache. 0 disables the cache.
+	 */
+	private static final long CACHE_SIZE = ERXProperties.longForKeyWithDefault( "JettyCompressionCacheSize", 32L * 1024 * 1024 );
+
+	/**
+	 * Content types eligible for compression
+	 */
+	private static final Set<String> MIME_TYPES = Set.of( ERXProperties.stringForKeyWithDefault( "JettyCompressionMimeTypes", "text/html,text/css,text/plain,text/xml,text/javascript,application/javascript,application/json,application/xml,image/svg+xml" ).split( "," ) );
+
+	private static final String GZIP = "gzip";
+
+	private static final CompressedCache cache = new CompressedCache( CACHE_SIZE );
+
+	private static final LongAdder compressedResponses = new LongAdder();
+	private static final LongAdder uncompressedBytes = new LongAdder();
+	private static final LongAdder compressedBytes = new LongAdder();
+	private static final LongAdder cacheHits = new LongAdder();
+	private static final LongAdder cacheMisses = new LongAdder();
+
+	/**
+	 * If the response body is eligible for compression and the client accepts it, compress it and set the appropriate response headers (including content-length).
+	 *
+	 * @return The body to send. Either the compressed body or the original one, if not compressed.
+	 */
+	static List<ByteBuffer> compress( final Request jettyRequest, final HttpFields.Mutable responseHeaders, final List<ByteBuffer> body ) {
+
+		if( responseHeaders.contains( HttpHeader.CONTENT_ENCODING ) || !isCompressibleType( responseHeaders.get( HttpHeader.CONTENT_TYPE ) ) ) {
+			return body;
+		}
+
+		// The response varies by accept-encoding, whether we end up compressing it or not
+		responseHeaders.addCSV( HttpHeader.VARY, HttpHeader.ACCEPT_ENCODING.asString() );
+
+		final long length = length( body );
+
+		if( length < MIN_SIZE || length > Integer.MAX_VALUE || !acceptsGzip( jettyRequest ) ) {
+			return body;
+		}
+
+		final byte[] compressed;
+
+		if( isCacheable( responseHeaders ) && CACHE_SIZE > 0 ) {
+			final String key = hash( body );
+			final byte[] cached = cache.get( key );
+
+			if( cached != null ) {
+				cacheHits.increment();
+				compressed = cached;
+			}
+			else {
+				cacheMisses.increment();
+				compressed = gzip( body, (int)length );
+				cache.put( key, compressed );
+			}
+		}
+		else {
+			compressed = gzip( body, (int)length );
+		}
+
+		compressedResponses.increment();
+		uncompressedBytes.add( length );
+		compressedBytes.add( compressed.length );
+
+		responseHeaders.put( HttpHeader.CONTENT_ENCODING, GZIP );
+		responseHeaders.put( HttpHeader.CONTENT_LENGTH, String.valueOf( compressed.length ) );
+
+		// Distinguish the compressed representation's ETag from the uncompressed one (same convention as Jetty's own compression)
+		final String etag = responseHeaders.get( HttpHeader.ETAG );
+
+		if( etag != null && etag.endsWith( "\"" ) ) {
+			responseHeaders.put( HttpHeader.ETAG, etag.substring( 0, etag.length() - 1 ) + "--" + GZIP + "\"" );
+		}
+
+		return List.of( ByteBuffer.wrap( compressed ) );
+	}
+
+	/**
+	 * @return A handler compressing the streamed responses of the given handler. Responses we've already compressed carry a content-encoding header, which makes it leave them alone.
+	 */
+	static Handler createCompressionHandler( final Handler handler ) {
+		final GzipEncoderConfig encoderConfig = new GzipEncoderConfig();
+		encoderConfig.setCompressionLevel( LEVEL );
+
+		final GzipCompression gzip = new GzipCompression();
+		gzip.setMinCompressSize( MIN_SIZE );
+		gzip.setDefaultEncoderConfig( encoderConfig );
+
+		final CompressionConfig.Builder config = CompressionConfig.builder().defaults();
+		MIME_TYPES.forEach( config::compressIncludeMimeType );
+
+		final CompressionHandler compressionHandler = new CompressionHandler( handler );
+		compressionHandler.putCompression( gzip );
+		compressionHandler.putConfiguration( "/", config.build() );
+		return compressionHandler;
+	}
+
+	/**
+	 * @return true if the given content-type is in our list of compressible types
+	 */
+	private static boolean isCompressibleType( final String contentType ) {
+
+		if( contentType == null ) {
+			return false;
+		}
+
+		final int semicolonIndex = contentType.indexOf( ';' );
+		final String mimeType = (semicolonIndex == -1 ? contentType : contentType.substring( 0, semicolonIndex )).trim().toLowerCase();
+		return MIME_TYPES.contains( mimeType );
+	}
+
+	/**
+	 * @return true if the client accepts gzip (explicitly or through a wildcard) with a non-zero quality
+	 */
+	private static boolean acceptsGzip( final Request jettyRequest ) {
+
+		for( final String value : jettyRequest.getHeaders().getCSV( HttpHeader.ACCEPT_ENCODING, false ) ) {
+			final String[] parts = value.split( ";" );
+			final String coding = parts[0].trim();
+
+			if( GZIP.equalsIgnoreCase( coding ) || "*".equals( coding ) ) {
+				return !hasZeroQuality( parts );
+			}
+		}
+
+		return false;
+	}
+
+	private static boolean hasZeroQuality( final String[] parts ) {
+
+		for( int i = 1; i < parts.length; i++ ) {
+			final String parameter = parts[i].trim();
+
+			if( parameter.startsWith( "q=" ) ) {
+				try {
+					return Double.parseDouble( parameter.substring( 2 ) ) == 0;
+				}
+				catch( NumberFormatException e ) {
+					return false;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * @return true if the response is cacheable, making it likely that the same content will be served again
+	 */
+	private static boolean isCacheable( final HttpFields.Mutable responseHeaders ) {
+
+		if( responseHeaders.contains( HttpHeader.SET_COOKIE ) ) {
+			return false;
+		}
+
+		final String cacheControl = responseHeaders.get( HttpHeader.CACHE_CONTROL );
+
+		if( cacheControl != null ) {
+			final String lowercaseCacheControl = cacheControl.toLowerCase();
+
+			if( lowercaseCacheControl.contains( "no-store" ) || lowercaseCacheControl.contains( "private" ) ) {
+				return false;
+			}
+
+			if( lowercaseCacheControl.contains( "max-age" ) || lowercaseCacheControl.contains( "public" ) ) {
+				return true;
+			}
+		}
+
+		return responseHeaders.contains( HttpHeader.ETAG ) || responseHeaders.contains( HttpHeader.LAST_MODIFIED ) || responseHeaders.contains( HttpHeader.EXPIRES );
+	}
+
+	private static long length( final List<ByteBuffer> body ) {
+		long length = 0;
+
+		for( final ByteBuffer buffer : body ) {
+			length += buffer.remaining();
+		}
+
+		return length;
+	}
+
+	/**
+	 * @return A SHA-256 hash of the body. A cryptographic hash, since a collision would mean serving another response's content.
+	 */
+	private static String hash( final List<ByteBuffer> body ) {
+		try {
+			final MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
+
+			for( final ByteBuffer buffer : body ) {
+				digest.update( buffer.duplicate() );
+			}
+
+			return HexFormat.of().formatHex( digest.digest() );
+		}
+		catch( NoSuchAlgorithmException e ) {
+			throw new IllegalStateException( "SHA-256 is not available", e );
+		}
+	}
+
+	private static byte[] gzip( final List<ByteBuffer> body, final int length ) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream( Math.max( 64, length / 4 ) );
+
+		try( final OutputStream gzipStream = new LeveledGZIPOutputStream( out, LEVEL ) ) {
+			for( final ByteBuffer buffer : body ) {
+				gzipStream.write( buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining() );
+			}
+		}
+		catch( IOException e ) {
+			// We're writing to memory, so this shouldn't happen
+			throw new UncheckedIOException( e );
+		}
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * @return Number of responses compressed
+	 */
+	public static long compressedResponses() {
+		return compressedResponses.sum();
+	}
+
+	/**
+	 * @return Total size of responses before compression, in bytes
+	 */
+	public static long uncompressedBytes() {
+		return uncompressedBytes.sum();
+	}
+
+	/**
+	 * @return Total size of responses after compression, in bytes
+	 */
+	public static long compressedBytes() {
+		return compressedBytes.sum();
+	}
+
+	/**
+	 * @return Number of compressed responses served from the cache
+	 */
+	public static long cacheHits() {
+		return cacheHits.sum();
+	}
+
+	/**
+	 * @return Number of cacheable responses that had to be compressed
+	 */
+	public static long cacheMisses() {
+		return cacheMisses.sum();
+	}
+
+	/**
+	 * GZIPOutputStream with a configurable compression level
+	 */
+	private static class LeveledGZIPOutputStream extends GZIPOutputStream {
+
+		public LeveledGZIPOutputStream( final OutputStream out, final int level ) throws IOException {
+			super( out );
+			def.setLevel( level );
+		}
+	}
+
+	/**
+	 * LRU cache of compressed content, bounded by the total size of the content
+	 */
+	private static class CompressedCache {
+
+		private final long _maxSize;
+		private long _size;
+
+		private final LinkedHashMap<String, byte[]> _entries = new LinkedHashMap<>( 16, 0.75f, true );
+
+		public CompressedCache( final long maxSize ) {
+			_maxSize = maxSize;
+		}
+
+		public synchronized byte[] get( final String key ) {
+			return _entries.get( key );
+		}
+
+		public synchronized void put( final String key, final byte[] compressed ) {
+
+			if( compressed.length > _maxSize ) {
+				return;
+			}
+
+			final byte[] previous = _entries.put( key, compressed );
+
+			if( previous != null ) {
+				_size -= previous.length;
+			}
+
+			_size += compressed.length;
+
+			// Evict least recently used entries until we're within bounds
+			while( _size > _maxSize ) {
+				final Map.Entry<String, byte[]> eldest = _entries.entrySet().iterator().next();
+				_entries.remove( eldest.getKey() );
+				_size -= eldest.getValue().length;
+				logger.debug( "Evicted compressed entry %s from cache".formatted( eldest.getKey() ) );
+			}
+		}
+	}
+}
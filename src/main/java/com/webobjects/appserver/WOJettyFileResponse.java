@@ -0,0 +1,173 @@
+package com.webobjects.appserver;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.http.MimeTypes;
+import org.eclipse.jetty.http.content.FileMappingHttpContentFactory;
+import org.eclipse.jetty.http.content.HttpContent;
+import org.eclipse.jetty.http.content.ResourceHttpContent;
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.ResourceService;
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.resource.Resource;
+import org.eclipse.jetty.util.resource.ResourceFactory;
+
+/**
+ * Serves a file as a WOResponse's body, without reading it through the heap.
+ *
+ * Files of MAPPED_MIN_FILE_SIZE (1MB) and larger are memory mapped and written straight from the page cache. Smaller ones are read into pooled buffers.
+ * Range requests aren't mapped, since mapping the whole file to send a part of it (e.g. for each seek in a video) isn't worth it. Only the requested range gets read.
+ * Nothing is cached between requests, since these are the application's files, which may change at any time (and may be private to a user).
+ * Jetty's ResourceService handles the rest, like it does for static resources (see WOJettyResourceHandler): HEAD, ETag/Last-Modified, conditional (304) and range (206) requests, so downloads can be resumed and videos seeked.
+ *
+ * <pre>
+ * final WOResponse response = new WOResponse();
+ * response.setHeader( "attachment; filename=\"report.pdf\"", "content-disposition" );
+ * WOJettyFileResponse.setFile( response, Path.of( "/data/reports/report.pdf" ) );
+ * return response;
+ * </pre>
+ *
+ * The response's content-type header is used if set, otherwise it's determined by the file's extension. If JettyCompression is enabled, the body is compressed on the fly (see WOJettyCompression).
+ */
+
+public class WOJettyFileResponse {
+
+	/**
+	 * Key under which a response's file is stored in it's userInfo
+	 */
+	public static final String FILE_KEY = "WOJettyFile";
+
+	/**
+	 * Files of this size (in bytes) and larger get memory mapped. Mapping has a fixed cost, which smaller files don't make up for.
+	 */
+	private static final int MAPPED_MIN_FILE_SIZE = 1024 * 1024;
+
+	private static final ResourceService resourceService = createResourceService();
+
+	/**
+	 * Content factory for the server's buffer pool. Created on first use.
+	 */
+	private static volatile FileContentFactory contentFactory;
+
+	/**
+	 * Serve the given file as the response's body. Takes precedence over the response's content and contentInputStream.
+	 */
+	public static void setFile( final WOResponse response, final Path file ) {
+		response.setUserInfoForKey( file, FILE_KEY );
+	}
+
+	/**
+	 * @return The file to serve as the response's body, null if none is set
+	 */
+	static Path file( final WOResponse response ) {
+		return response.userInfoForKey( FILE_KEY ) instanceof Path file ? file : null;
+	}
+
+	/**
+	 * Write the given file as the body of the response. Responds with a 404 if the file doesn't exist (anymore).
+	 *
+	 * @return The file's size (bytes actually sent may be less, e.g. for a range request)
+	 */
+	static long write( final Request request, final Response response, final Callback callback, final Path file ) throws IOException {
+		final boolean isRangeRequest = request.getHeaders().contains( HttpHeader.RANGE );
+		HttpContent content = contentFactory( request.getComponents().getByteBufferPool() ).getContent( file.toString(), isRangeRequest );
+
+		if( content == null ) {
+			Response.writeError( request, response, callback, HttpStatus.NOT_FOUND_404 );
+			return 0;
+		}
+
+		final String contentType = response.getHeaders().get( HttpHeader.CONTENT_TYPE );
+
+		if( contentType != null ) {
+			content = new ContentTypeHttpContent( content, contentType );
+		}
+
+		resourceService.doGet( request, response, callback, content );
+		return content.getContentLengthValue();
+	}
+
+	/**
+	 * @return The content factory for the given buffer pool, (re)creating it if it was created for another one (i.e. another server)
+	 */
+	private static FileContentFactory contentFactory( final ByteBufferPool bufferPool ) {
+		FileContentFactory factory = contentFactory;
+
+		if( factory == null || factory.bufferPool() != bufferPool ) {
+			factory = new FileContentFactory( bufferPool );
+			contentFactory = factory;
+		}
+
+		return factory;
+	}
+
+	private static ResourceService createResourceService() {
+		final ResourceService service = new ResourceService();
+		service.setEtags( true );
+		service.setAcceptRanges( true );
+		return service;
+	}
+
+	/**
+	 * Creates content for files by path, with a content-type determined by the file's extension. Content of large enough files gets memory mapped, unless only a range of it is requested.
+	 */
+	private record FileContentFactory( ByteBufferPool bufferPool, HttpContent.Factory unmappedFactory, HttpContent.Factory mappedFactory ) {
+
+		FileContentFactory( final ByteBufferPool bufferPool ) {
+			this( bufferPool, createFactory( new ByteBufferPool.Sized( bufferPool ) ) );
+		}
+
+		private FileContentFactory( final ByteBufferPool bufferPool, final HttpContent.Factory unmappedFactory ) {
+			this( bufferPool, unmappedFactory, new FileMappingHttpContentFactory( unmappedFactory, MAPPED_MIN_FILE_SIZE, Integer.MAX_VALUE ) );
+		}
+
+		private static HttpContent.Factory createFactory( final ByteBufferPool.Sized bufferPool ) {
+			return path -> {
+				final Resource resource = ResourceFactory.root().newResource( Path.of( path ) );
+
+				if( resource == null || !resource.exists() || resource.isDirectory() ) {
+					return null;
+				}
+
+				return new ResourceHttpContent( resource, MimeTypes.DEFAULTS.getMimeByExtension( path ), bufferPool );
+			};
+		}
+
+		/**
+		 * @param isRangeRequest true if only part of the content is requested, in which case it's never memory mapped
+		 * @return Content of the file at the given path, null if it doesn't exist
+		 */
+		HttpContent getContent( final String path, final boolean isRangeRequest ) throws IOException {
+			return isRangeRequest ? unmappedFactory.getContent( path ) : mappedFactory.getContent( path );
+		}
+	}
+
+	/**
+	 * Content with the content-type set on the WOResponse, rather than the one determined by the file's extension
+	 */
+	private static class ContentTypeHttpContent extends HttpContent.Wrapper {
+
+		private final HttpField _contentType;
+
+		ContentTypeHttpContent( final HttpContent content, final String contentType ) {
+			super( content );
+			_contentType = new HttpField( HttpHeader.CONTENT_TYPE, contentType );
+		}
+
+		@Override
+		public HttpField getContentType() {
+			return _contentType;
+		}
+
+		@Override
+		public String getContentTypeValue() {
+			return _contentType.getValue();
+		}
+	}
+}
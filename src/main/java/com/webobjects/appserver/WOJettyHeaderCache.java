@@ -0,0 +1,65 @@
+package com.webobjects.appserver;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.PreEncodedHttpField;
+
+import er.extensions.foundation.ERXProperties;
+
+/**
+ * Cache of pre-encoded response header fields.
+ *
+ * Most responses carry the same values for headers like content-type, cache-control and x-frame-options. A PreEncodedHttpField is validated and encoded (for both HTTP/1 and HTTP/2) once, and then copied as bytes for every response carrying it.
+ * Only headers whose values are expected to repeat are cached, and the number of distinct values cached per header is bounded, so headers with varying values can't grow the cache indefinitely.
+ */
+
+class WOJettyHeaderCache {
+
+	/**
+	 * Names (lowercase) of headers whose values get cached
+	 */
+	private static final Set<String> HEADER_NAMES = Set.of( ERXProperties.stringForKeyWithDefault( "JettyPreEncodedHeaders", "content-type,cache-control,pragma,x-frame-options,x-content-type-options,x-xss-protection,referrer-policy,strict-transport-security,content-security-policy,vary,content-language,access-control-allow-origin,access-control-allow-credentials" ).split( "," ) );
+
+	/**
+	 * Maximum number of distinct values cached per header
+	 */
+	private static final int MAX_VALUES_PER_HEADER = ERXProperties.intForKeyWithDefault( "JettyPreEncodedHeadersMaxValues", 64 );
+
+	/**
+	 * Header name -> header value -> field. Populated with a value map for each cached header up front, so lookups of other headers never touch the inner maps.
+	 */
+	private static final Map<String, Map<String, HttpField>> cache = new ConcurrentHashMap<>();
+
+	static {
+		for( final String name : HEADER_NAMES ) {
+			// Set-cookie values are unique per response, and each one must be sent as it's own header anyway
+			if( !name.isEmpty() && !HttpHeader.SET_COOKIE.is( name ) ) {
+				cache.put( name, new ConcurrentHashMap<>() );
+			}
+		}
+	}
+
+	/**
+	 * @return A pre-encoded field for the given header, or null if the header isn't cached (in which case the caller should add the header as usual)
+	 */
+	static HttpField field( final String name, final String value ) {
+		final Map<String, HttpField> values = cache.get( name );
+
+		if( values == null || value == null ) {
+			return null;
+		}
+
+		HttpField field = values.get( value );
+
+		if( field == null && values.size() < MAX_VALUES_PER_HEADER ) {
+			field = new PreEncodedHttpField( HttpHeader.CACHE.get( name ), name, value );
+			values.putIfAbsent( value, field );
+		}
+
+		return field;
+	}
+}
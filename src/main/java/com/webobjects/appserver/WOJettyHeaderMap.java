@@ -0,0 +1,204 @@
+package com.webobjects.appserver;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.util.StringUtil;
+
+/**
+ * A read-only Map of a Jetty request's headers, for passing to WO when constructing a WORequest.
+ *
+ * Nothing is copied at construction. On first access, the fields are indexed by name in a single pass, after which lookups and iteration work off the index.
+ * The index only records which fields have which name. An entry's value list is built the first time it's asked for, so headers WO never reads are never split into values.
+ * Header names are matched case-insensitively, and the values of repeated headers (e.g. multiple cookie lines) are merged into a single list, in the order they were received.
+ * Keys are the header names as received (first occurrence, if repeated), iterated in the order received. Values are split on commas, as per HttpField.getValueList().
+ */
+
+class WOJettyHeaderMap extends AbstractMap<String, List<String>> {
+
+	private final HttpFields _fields;
+
+	/**
+	 * Entries keyed by lowercase header name, in the order the names were first received. Built on first use, and used for all lookups.
+	 */
+	private Map<String, HeaderEntry> _index;
+
+	private Set<Entry<String, List<String>>> _entrySet;
+
+	WOJettyHeaderMap( final HttpFields fields ) {
+		_fields = fields;
+	}
+
+	/**
+	 * @return Our index, building it on first invocation
+	 */
+	private Map<String, HeaderEntry> index() {
+
+		if( _index == null ) {
+			final Map<String, HeaderEntry> index = new LinkedHashMap<>( _fields.size() * 2 );
+
+			for( final HttpField field : _fields ) {
+				final HeaderEntry entry = index.get( field.getLowerCaseName() );
+
+				if( entry == null ) {
+					index.put( field.getLowerCaseName(), new HeaderEntry( field ) );
+				}
+				else {
+					entry.addField( field );
+				}
+			}
+
+			_index = index;
+		}
+
+		return _index;
+	}
+
+	@Override
+	public List<String> get( final Object key ) {
+
+		if( !(key instanceof String name) ) {
+			return null;
+		}
+
+		final HeaderEntry entry = index().get( StringUtil.asciiToLowerCase( name ) );
+		return entry == null ? null : entry.getValue();
+	}
+
+	@Override
+	public boolean containsKey( final Object key ) {
+		return key instanceof String name && index().containsKey( StringUtil.asciiToLowerCase( name ) );
+	}
+
+	@Override
+	public int size() {
+		return index().size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return _fields.size() == 0;
+	}
+
+	@Override
+	public Set<Entry<String, List<String>>> entrySet() {
+
+		if( _entrySet == null ) {
+			_entrySet = new EntrySet();
+		}
+
+		return _entrySet;
+	}
+
+	/**
+	 * Entries for each distinct header name, in the order received
+	 */
+	private class EntrySet extends AbstractSet<Entry<String, List<String>>> {
+
+		@Override
+		public int size() {
+			return index().size();
+		}
+
+		@Override
+		public Iterator<Entry<String, List<String>>> iterator() {
+			return Collections.<Entry<String, List<String>>>unmodifiableCollection( index().values() ).iterator();
+		}
+	}
+
+	/**
+	 * A header name and all of it's values
+	 */
+	private static class HeaderEntry implements Entry<String, List<String>> {
+
+		/**
+		 * The first field with this name. Also provides the entry's key.
+		 */
+		private final HttpField _field;
+
+		/**
+		 * Fields repeating the name, in the order received. Null for the (usual) header that occurs once.
+		 */
+		private List<HttpField> _moreFields;
+
+		/**
+		 * Values of all the fields. Built on first invocation of getValue().
+		 */
+		private List<String> _values;
+
+		private HeaderEntry( final HttpField field ) {
+			_field = field;
+		}
+
+		private void addField( final HttpField field ) {
+
+			if( _moreFields == null ) {
+				_moreFields = new ArrayList<>( 2 );
+			}
+
+			_moreFields.add( field );
+		}
+
+		@Override
+		public String getKey() {
+			return _field.getName();
+		}
+
+		@Override
+		public List<String> getValue() {
+
+			if( _values == null ) {
+				_values = buildValues();
+			}
+
+			return _values;
+		}
+
+		/**
+		 * @return The values of all our fields. For a single field, that's the field's own value list, which we don't copy.
+		 */
+		private List<String> buildValues() {
+
+			if( _moreFields == null ) {
+				return values( _field );
+			}
+
+			final List<String> values = new ArrayList<>( values( _field ) );
+
+			for( final HttpField field : _moreFields ) {
+				values.addAll( values( field ) );
+			}
+
+			return values;
+		}
+
+		private static List<String> values( final HttpField field ) {
+			return field.getValue() == null ? List.of() : field.getValueList();
+		}
+
+		@Override
+		public List<String> setValue( final List<String> value ) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean equals( final Object o ) {
+			return o instanceof Entry<?, ?> e && getKey().equals( e.getKey() ) && Objects.equals( getValue(), e.getValue() );
+		}
+
+		@Override
+		public int hashCode() {
+			return getKey().hashCode() ^ Objects.hashCode( getValue() );
+		}
+	}
+}
@@ -0,0 +1,376 @@
+package com.webobjects.appserver;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.io.Content;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.Callback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.webobjects.appserver.websocket.WOWebSocketSessions;
+
+import er.extensions.foundation.ERXProperties;
+
+/**
+ * Request metrics for the adaptor.
+ *
+ * Latency is recorded per request phase (conversion to WORequest, dispatchRequest() and body write-out) in lock-free histograms, along with counters for status codes, bytes in/out and which body path responses took.
+ * Recording doesn't allocate. Metrics are exposed through JMX and optionally in Prometheus' text format, served directly by the adaptor (without going through WO).
+ */
+
+public class WOJettyMetrics {
+
+	private static final Logger logger = LoggerFactory.getLogger( WOJettyMetrics.class );
+
+	/**
+	 * If true, request metrics get recorded and registered with JMX
+	 */
+	static final boolean ENABLED = ERXProperties.booleanForKeyWithDefault( "JettyMetrics", false );
+
+	/**
+	 * Path at which metrics are served in Prometheus' text format. Not served if not set.
+	 */
+	static final String PROMETHEUS_PATH = ERXProperties.stringForKey( "JettyMetricsPrometheusPath" );
+
+	/**
+	 * @return true if metrics are enabled (JettyMetrics)
+	 */
+	public static boolean isEnabled() {
+		return ENABLED;
+	}
+
+	/**
+	 * Name under which our MBean is registered
+	 */
+	private static final String MBEAN_NAME = "com.webobjects.appserver:type=WOJettyMetrics";
+
+	private static final Histogram convertLatency = new Histogram();
+	private static final Histogram dispatchLatency = new Histogram();
+	private static final Histogram writeLatency = new Histogram();
+
+	/**
+	 * Response counts by status class, index 1 = 1xx, 2 = 2xx etc. Index 0 counts anything outside the valid range.
+	 */
+	private static final LongAdder[] statusCounts = newAdders( 6 );
+
+	private static final LongAdder requestBytes = new LongAdder();
+	private static final LongAdder responseBytes = new LongAdder();
+	private static final LongAdder streamResponses = new LongAdder();
+	private static final LongAdder dataResponses = new LongAdder();
+
+	/**
+	 * Record a handled request
+	 *
+	 * @param convertNanos time spent converting the Jetty request to a WORequest
+	 * @param dispatchNanos time spent in WOApplication.dispatchRequest()
+	 * @param writeNanos time spent writing the response (for asynchronous writes, the time spent initiating the write)
+	 * @param status the response's status code
+	 * @param bytesIn size of the request body, if known
+	 * @param bytesOut size of the response body
+	 * @param streamed true if the response body was written from WOResponse.contentInputStream()
+	 */
+	static void record( final long convertNanos, final long dispatchNanos, final long writeNanos, final int status, final long bytesIn, final long bytesOut, final boolean streamed ) {
+		convertLatency.record( convertNanos );
+		dispatchLatency.record( dispatchNanos );
+		writeLatency.record( writeNanos );
+
+		final int statusClass = status / 100;
+		statusCounts[statusClass > 0 && statusClass < statusCounts.length ? statusClass : 0].increment();
+
+		if( bytesIn > 0 ) {
+			requestBytes.add( bytesIn );
+		}
+
+		responseBytes.add( bytesOut );
+		(streamed ? streamResponses : dataResponses).increment();
+	}
+
+	/**
+	 * Register our MBean with the platform MBean server, replacing one registered for a previous server. Admission metrics are read from the given server's admission handler, if it has one.
+	 */
+	static void registerMBean( final Server server ) {
+		try {
+			final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName name = new ObjectName( MBEAN_NAME );
+
+			if( mbeanServer.isRegistered( name ) ) {
+				mbeanServer.unregisterMBean( name );
+			}
+
+			mbeanServer.registerMBean( new StandardMBean( new MetricsMBeanImpl( server ), MetricsMBean.class ), name );
+		}
+		catch( Exception e ) {
+			logger.warn( "Failed to register metrics MBean", e );
+		}
+	}
+
+	/**
+	 * @return All metrics in Prometheus' text exposition format. Admission and compression metrics are included, if the admission handler is given/compression is enabled.
+	 */
+	static String prometheusText( final WOJettyAdmissionHandler admissionHandler ) {
+		final StringBuilder b = new StringBuilder( 8192 );
+
+		b.append( "# HELP wojetty_request_phase_seconds Request latency by phase\n" );
+		b.append( "# TYPE wojetty_request_phase_seconds histogram\n" );
+		convertLatency.appendPrometheus( b, "wojetty_request_phase_seconds", "convert" );
+		dispatchLatency.appendPrometheus( b, "wojetty_request_phase_seconds", "dispatch" );
+		writeLatency.appendPrometheus( b, "wojetty_request_phase_seconds", "write" );
+
+		b.append( "# HELP wojetty_responses_total Responses by status class\n" );
+		b.append( "# TYPE wojetty_responses_total counter\n" );
+
+		for( int i = 1; i < statusCounts.length; i++ ) {
+			b.append( "wojetty_responses_total{status=\"" ).append( i ).append( "xx\"} " ).append( statusCounts[i].sum() ).append( '\n' );
+		}
+
+		b.append( "wojetty_responses_total{status=\"other\"} " ).append( statusCounts[0].sum() ).append( '\n' );
+
+		b.append( "# HELP wojetty_response_body_total Responses by body path\n" );
+		b.append( "# TYPE wojetty_response_body_total counter\n" );
+		b.append( "wojetty_response_body_total{path=\"data\"} " ).append( dataResponses.sum() ).append( '\n' );
+		b.append( "wojetty_response_body_total{path=\"stream\"} " ).append( streamResponses.sum() ).append( '\n' );
+
+		appendCounter( b, "wojetty_request_bytes_total", "Request body bytes received", requestBytes.sum() );
+		appendCounter( b, "wojetty_response_bytes_total", "Response body bytes sent", responseBytes.sum() );
+
+		appendByPath( b, "wojetty_websocket_sessions", "Open WebSocket sessions by endpoint path", "gauge", WOWebSocketSessions.sessionCountsByPath() );
+		appendCounter( b, "wojetty_websocket_dropped_messages_total", "Outgoing WebSocket messages dropped because the client wasn't keeping up", WOWebSocketSessions.droppedMessageCount() );
+		appendCounter( b, "wojetty_websocket_slow_consumer_disconnects_total", "WebSocket clients disconnected because they weren't keeping up", WOWebSocketSessions.slowConsumerDisconnectCount() );
+		appendByPath( b, "wojetty_websocket_deflate_raw_bytes_total", "Outgoing WebSocket payload bytes before permessage-deflate, by endpoint path", "counter", WOWebSocketSessions.deflateRawBytesByPath() );
+		appendByPath( b, "wojetty_websocket_deflate_wire_bytes_total", "Outgoing WebSocket payload bytes after permessage-deflate, by endpoint path", "counter", WOWebSocketSessions.deflateWireBytesByPath() );
+		appendByPath( b, "wojetty_websocket_deflate_skipped_messages_total", "Outgoing WebSocket messages sent uncompressed for being below the minimum size, by endpoint path", "counter", WOWebSocketSessions.deflateSkippedMessagesByPath() );
+
+		if( WOAdaptorJetty.COMPRESSION_ENABLED ) {
+			appendCounter( b, "wojetty_compression_responses_total", "Responses compressed", WOJettyCompression.compressedResponses() );
+			appendCounter( b, "wojetty_compression_uncompressed_bytes_total", "Size of compressed responses before compression", WOJettyCompression.uncompressedBytes() );
+			appendCounter( b, "wojetty_compression_compressed_bytes_total", "Size of compressed responses after compression", WOJettyCompression.compressedBytes() );
+			appendCounter( b, "wojetty_compression_cache_hits_total", "Compressed responses served from cache", WOJettyCompression.cacheHits() );
+			appendCounter( b, "wojetty_compression_cache_misses_total", "Cacheable responses that had to be compressed", WOJettyCompression.cacheMisses() );
+		}
+
+		if( admissionHandler != null ) {
+			b.append( "# HELP wojetty_admission_queued Requests waiting for admission\n" );
+			b.append( "# TYPE wojetty_admission_queued gauge\n" );
+			b.append( "wojetty_admission_queued " ).append( admissionHandler.queuedRequestCount() ).append( '\n' );
+			appendCounter( b, "wojetty_admission_rejected_total", "Requests rejected by admission control", admissionHandler.rejectedRequestCount() );
+		}
+
+		return b.toString();
+	}
+
+	private static String escapeLabelValue( final String value ) {
+		return value.replace( "\\", "\\\\" ).replace( "\"", "\\\"" ).replace( "\n", "\\n" );
+	}
+
+	private static void appendByPath( final StringBuilder b, final String name, final String help, final String type, final Map<String, ? extends Number> valuesByPath ) {
+		b.append( "# HELP " ).append( name ).append( ' ' ).append( help ).append( '\n' );
+		b.append( "# TYPE " ).append( name ).append( ' ' ).append( type ).append( '\n' );
+
+		for( final Map.Entry<String, ? extends Number> entry : valuesByPath.entrySet() ) {
+			b.append( name ).append( "{path=\"" ).append( escapeLabelValue( entry.getKey() ) ).append( "\"} " ).append( entry.getValue() ).append( '\n' );
+		}
+	}
+
+	private static void appendCounter( final StringBuilder b, final String name, final String help, final long value ) {
+		b.append( "# HELP " ).append( name ).append( ' ' ).append( help ).append( '\n' );
+		b.append( "# TYPE " ).append( name ).append( " counter\n" );
+		b.append( name ).append( ' ' ).append( value ).append( '\n' );
+	}
+
+	private static LongAdder[] newAdders( final int count ) {
+		final LongAdder[] adders = new LongAdder[count];
+
+		for( int i = 0; i < count; i++ ) {
+			adders[i] = new LongAdder();
+		}
+
+		return adders;
+	}
+
+	/**
+	 * A lock-free latency histogram with exponential buckets. Bucket i counts durations of less than 2^i microseconds, the last bucket counts everything above the largest bound.
+	 */
+	static class Histogram {
+
+		/**
+		 * Number of bounded buckets. The largest bound is 2^24 microseconds (~16.8 seconds)
+		 */
+		private static final int BOUNDED_BUCKETS = 25;
+
+		private final LongAdder[] _buckets = newAdders( BOUNDED_BUCKETS + 1 );
+		private final LongAdder _sumNanos = new LongAdder();
+
+		void record( final long nanos ) {
+			final long micros = Math.max( 0, nanos ) / 1000;
+			final int index = Math.min( 64 - Long.numberOfLeadingZeros( micros ), BOUNDED_BUCKETS );
+			_buckets[index].increment();
+			_sumNanos.add( nanos );
+		}
+
+		long count() {
+			long count = 0;
+
+			for( final LongAdder bucket : _buckets ) {
+				count += bucket.sum();
+			}
+
+			return count;
+		}
+
+		/**
+		 * @return Mean latency in milliseconds
+		 */
+		double meanMillis() {
+			final long count = count();
+			return count == 0 ? 0 : _sumNanos.sum() / (double)count / TimeUnit.MILLISECONDS.toNanos( 1 );
+		}
+
+		/**
+		 * @return Upper bound (in milliseconds) of the bucket containing the given quantile. Infinity if in the unbounded bucket.
+		 */
+		double quantileMillis( final double quantile ) {
+			final long count = count();
+
+			if( count == 0 ) {
+				return 0;
+			}
+
+			final long target = (long)Math.ceil( quantile * count );
+			long cumulative = 0;
+
+			for( int i = 0; i < BOUNDED_BUCKETS; i++ ) {
+				cumulative += _buckets[i].sum();
+
+				if( cumulative >= target ) {
+					return (1L << i) / 1000d;
+				}
+			}
+
+			return Double.POSITIVE_INFINITY;
+		}
+
+		void appendPrometheus( final StringBuilder b, final String name, final String phase ) {
+			long cumulative = 0;
+
+			for( int i = 0; i < BOUNDED_BUCKETS; i++ ) {
+				cumulative += _buckets[i].sum();
+				b.append( name ).append( "_bucket{phase=\"" ).append( phase ).append( "\",le=\"" ).append( (1L << i) / 1_000_000d ).append( "\"} " ).append( cumulative ).append( '\n' );
+			}
+
+			cumulative += _buckets[BOUNDED_BUCKETS].sum();
+			b.append( name ).append( "_bucket{phase=\"" ).append( phase ).append( "\",le=\"+Inf\"} " ).append( cumulative ).append( '\n' );
+			b.append( name ).append( "_sum{phase=\"" ).append( phase ).append( "\"} " ).append( _sumNanos.sum() / 1_000_000_000d ).append( '\n' );
+			b.append( name ).append( "_count{phase=\"" ).append( phase ).append( "\"} " ).append( cumulative ).append( '\n' );
+		}
+	}
+
+	/**
+	 * Serves metrics in Prometheus' text format at PROMETHEUS_PATH, passing all other requests on to the wrapped handler
+	 */
+	static class PrometheusHandler extends Handler.Wrapper {
+
+		public PrometheusHandler( final Handler handler ) {
+			super( handler );
+		}
+
+		@Override
+		public boolean handle( final Request request, final Response response, final Callback callback ) throws Exception {
+
+			if( PROMETHEUS_PATH.equals( request.getHttpURI().getPath() ) && HttpMethod.GET.is( request.getMethod() ) ) {
+				final WOJettyAdmissionHandler admissionHandler = getServer().getDescendant( WOJettyAdmissionHandler.class );
+
+				response.setStatus( 200 );
+				response.getHeaders().put( HttpHeader.CONTENT_TYPE, "text/plain; version=0.0.4; charset=utf-8" );
+				Content.Sink.write( response, true, prometheusText( admissionHandler ), callback );
+				return true;
+			}
+
+			return super.handle( request, response, callback );
+		}
+	}
+
+	/**
+	 * Metrics exposed through JMX
+	 */
+	public interface MetricsMBean {
+		long getRequestCount();
+		long getResponses1xx();
+		long getResponses2xx();
+		long getResponses3xx();
+		long getResponses4xx();
+		long getResponses5xx();
+		long getRequestBytes();
+		long getResponseBytes();
+		long getStreamResponses();
+		long getDataResponses();
+		double getConvertMeanMillis();
+		double getConvertP99Millis();
+		double getDispatchMeanMillis();
+		double getDispatchP99Millis();
+		double getWriteMeanMillis();
+		double getWriteP99Millis();
+		int getWebSocketSessionCount();
+
+		/**
+		 * @return Number of requests waiting for admission, 0 if admission control isn't enabled
+		 */
+		int getAdmissionQueuedRequests();
+
+		/**
+		 * @return Number of requests rejected by admission control, 0 if it isn't enabled
+		 */
+		long getAdmissionRejectedRequests();
+	}
+
+	private static class MetricsMBeanImpl implements MetricsMBean {
+
+		private final Server _server;
+
+		MetricsMBeanImpl( final Server server ) {
+			_server = server;
+		}
+
+		@Override public long getRequestCount() { return dispatchLatency.count(); }
+		@Override public long getResponses1xx() { return statusCounts[1].sum(); }
+		@Override public long getResponses2xx() { return statusCounts[2].sum(); }
+		@Override public long getResponses3xx() { return statusCounts[3].sum(); }
+		@Override public long getResponses4xx() { return statusCounts[4].sum(); }
+		@Override public long getResponses5xx() { return statusCounts[5].sum(); }
+		@Override public long getRequestBytes() { return requestBytes.sum(); }
+		@Override public long getResponseBytes() { return responseBytes.sum(); }
+		@Override public long getStreamResponses() { return streamResponses.sum(); }
+		@Override public long getDataResponses() { return dataResponses.sum(); }
+		@Override public double getConvertMeanMillis() { return convertLatency.meanMillis(); }
+		@Override public double getConvertP99Millis() { return convertLatency.quantileMillis( 0.99 ); }
+		@Override public double getDispatchMeanMillis() { return dispatchLatency.meanMillis(); }
+		@Override public double getDispatchP99Millis() { return dispatchLatency.quantileMillis( 0.99 ); }
+		@Override public double getWriteMeanMillis() { return writeLatency.meanMillis(); }
+		@Override public double getWriteP99Millis() { return writeLatency.quantileMillis( 0.99 ); }
+		@Override public int getWebSocketSessionCount() { return WOWebSocketSessions.sessionCount(); }
+
+		@Override
+		public int getAdmissionQueuedRequests() {
+			final WOJettyAdmissionHandler admissionHandler = _server.getDescendant( WOJettyAdmissionHandler.class );
+			return admissionHandler != null ? admissionHandler.queuedRequestCount() : 0;
+		}
+
+		@Override
+		public long getAdmissionRejectedRequests() {
+			final WOJettyAdmissionHandler admissionHandler = _server.getDescendant( WOJettyAdmissionHandler.class );
+			return admissionHandler != null ? admissionHandler.rejectedRequestCount() : 0;
+		}
+	}
+}
@@ -0,0 +1,275 @@
+package com.webobjects.appserver;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.eclipse.jetty.http.HttpException;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.server.Request;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.webobjects.appserver._private.WOInputStreamData;
+import com.webobjects.appserver._private.WONoCopyPushbackInputStream;
+import com.webobjects.foundation.NSData;
+
+import er.extensions.foundation.ERXProperties;
+
+/**
+ * Converts a Jetty request's body to something WO can consume.
+ *
+ * - Bodies with a known length that fits in an int are streamed directly to WO (no buffering)
+ * - Bodies of unknown length (chunked uploads) are buffered in memory up to a threshold, after which they're spooled to a temporary file
+ * - Bodies larger than an int (the limit of WO's NSData-based request content) can't be passed to WO as content. Instead, the content is set to empty and the body is made available as an InputStream in the WORequest's userInfo, under CONTENT_INPUT_STREAM_KEY (with the length under CONTENT_LENGTH_KEY).
+ * - Bodies larger than MAX_SIZE (if set) are rejected with a 413
+ */
+
+public class WOJettyRequestBody {
+
+	private static final Logger logger = LoggerFactory.getLogger( WOJettyRequestBody.class );
+
+	/**
+	 * userInfo key for an InputStream of the request body, when it's too large for WO to handle as content
+	 */
+	public static final String CONTENT_INPUT_STREAM_KEY = "WOJettyContentInputStream";
+
+	/**
+	 * userInfo key for the length (Long) of the request body, when it's too large for WO to handle as content
+	 */
+	public static final String CONTENT_LENGTH_KEY = "WOJettyContentLength";
+
+	/**
+	 * Request bodies of unknown length larger than this (in bytes) get spooled to disk instead of being kept in memory
+	 */
+	private static final int SPOOL_THRESHOLD = ERXProperties.intForKeyWithDefault( "JettyRequestBodySpoolThreshold", 1024 * 1024 );
+
+	/**
+	 * Directory for spooled request bodies. Defaults to the system's temporary directory.
+	 */
+	private static final String SPOOL_DIRECTORY = ERXProperties.stringForKey( "JettyRequestBodySpoolDirectory" );
+
+	/**
+	 * Maximum size (in bytes) of a request body. Larger bodies are rejected with a 413, whether their length is declared or not (so a chunked upload can't fill up the spool directory). 0 for no limit.
+	 */
+	private static final long MAX_SIZE = ERXProperties.longForKeyWithDefault( "JettyRequestBodyMaxSize", 0 );
+
+	/**
+	 * @return The request's body as NSData for WO to consume. If the body is too large for NSData, userInfo is populated with a stream of the body and it's length, and empty data is returned.
+	 */
+	static NSData contentData( final Request jettyRequest, final Map<String, Object> userInfo ) {
+
+		final long length = jettyRequest.getLength();
+
+		if( length == 0 || (length == -1 && !hasBodyOfUnknownLength( jettyRequest )) ) {
+			return NSData.EmptyData;
+		}
+
+		if( length > 0 ) {
+			checkMaxSize( length );
+		}
+
+		final InputStream jettyStream = Request.asInputStream( jettyRequest );
+
+		if( length > Integer.MAX_VALUE ) {
+			userInfo.put( CONTENT_INPUT_STREAM_KEY, jettyStream );
+			userInfo.put( CONTENT_LENGTH_KEY, length );
+			return NSData.EmptyData;
+		}
+
+		if( length > 0 ) {
+			return streamData( new BufferedInputStream( jettyStream ), (int)length );
+		}
+
+		// Length is unknown (chunked request), so we have to read the body to find out
+		try {
+			return readUnknownLength( jettyRequest, jettyStream, userInfo );
+		}
+		catch( IOException e ) {
+			throw new UncheckedIOException( "Failed to read request body", e );
+		}
+	}
+
+	/**
+	 * @return true if a request with no declared length actually has a body.
+	 * HTTP/1 announces such bodies with transfer-encoding. HTTP/2 and later can send a body without declaring a length, but not for GET/HEAD, or CONNECT (used for WebSockets over HTTP/2, where reading the "body" would block for the lifetime of the socket)
+	 */
+	private static boolean hasBodyOfUnknownLength( final Request jettyRequest ) {
+
+		if( jettyRequest.getHeaders().contains( HttpHeader.TRANSFER_ENCODING ) ) {
+			return true;
+		}
+
+		final HttpVersion version = jettyRequest.getConnectionMetaData().getHttpVersion();
+		final String method = jettyRequest.getMethod();
+
+		return version.getVersion() >= HttpVersion.HTTP_2.getVersion() && !HttpMethod.GET.is( method ) && !HttpMethod.HEAD.is( method ) && !HttpMethod.CONNECT.is( method );
+	}
+
+	/**
+	 * @throws HttpException.RuntimeException with a 413 if the given body length exceeds MAX_SIZE
+	 */
+	private static void checkMaxSize( final long length ) {
+		if( MAX_SIZE > 0 && length > MAX_SIZE ) {
+			throw new HttpException.RuntimeException( HttpStatus.PAYLOAD_TOO_LARGE_413, "Request body exceeds %s bytes".formatted( MAX_SIZE ) );
+		}
+	}
+
+	/**
+	 * @return NSData streaming it's content from the given stream. All of this stream wrapping is required for WO to be happy. Yay!
+	 */
+	private static NSData streamData( final InputStream stream, final int length ) {
+		final WONoCopyPushbackInputStream wrappedStream = new WONoCopyPushbackInputStream( stream, length );
+		return new WOInputStreamData( wrappedStream, length );
+	}
+
+	/**
+	 * Reads a body of unknown length, keeping it in memory if it's small and spooling it to disk once it exceeds SPOOL_THRESHOLD
+	 */
+	private static NSData readUnknownLength( final Request jettyRequest, final InputStream jettyStream, final Map<String, Object> userInfo ) throws IOException {
+
+		final byte[] buffer = new byte[8192];
+		final ByteArrayOutputStream memory = new ByteArrayOutputStream();
+
+		SpoolFile spoolFile = null;
+		OutputStream out = memory;
+		long totalLength = 0;
+
+		try {
+			int read;
+
+			while( (read = jettyStream.read( buffer )) != -1 ) {
+
+				checkMaxSize( totalLength + read );
+
+				// Once we pass the threshold, move what we've got so far to disk and continue writing there
+				if( spoolFile == null && totalLength + read > SPOOL_THRESHOLD ) {
+					spoolFile = createSpoolFile( jettyRequest );
+					out = Files.newOutputStream( spoolFile.path() );
+					memory.writeTo( out );
+					memory.reset();
+				}
+
+				out.write( buffer, 0, read );
+				totalLength += read;
+			}
+		}
+		finally {
+			if( spoolFile != null ) {
+				out.close();
+			}
+		}
+
+		if( spoolFile == null ) {
+			return totalLength == 0 ? NSData.EmptyData : new NSData( memory.toByteArray() );
+		}
+
+		logger.debug( "Spooled request body of %s bytes to %s".formatted( totalLength, spoolFile.path() ) );
+
+		final InputStream spoolStream = spoolFile.openStream();
+
+		if( totalLength > Integer.MAX_VALUE ) {
+			userInfo.put( CONTENT_INPUT_STREAM_KEY, spoolStream );
+			userInfo.put( CONTENT_LENGTH_KEY, totalLength );
+			return NSData.EmptyData;
+		}
+
+		return streamData( new BufferedInputStream( spoolStream ), (int)totalLength );
+	}
+
+	/**
+	 * @return A new temporary file for spooling the request's body. The file (and any stream opened on it) gets closed and deleted once the request completes, no matter what the app did with it.
+	 */
+	private static SpoolFile createSpoolFile( final Request jettyRequest ) throws IOException {
+		final Path path = SPOOL_DIRECTORY != null ? Files.createTempFile( Path.of( SPOOL_DIRECTORY ), "wojetty-", ".body" ) : Files.createTempFile( "wojetty-", ".body" );
+		final SpoolFile spoolFile = new SpoolFile( path );
+		Request.addCompletionListener( jettyRequest, failure -> spoolFile.release() );
+		return spoolFile;
+	}
+
+	/**
+	 * A spooled request body, and the stream the app reads it from
+	 */
+	private static class SpoolFile {
+
+		private final Path _path;
+
+		/**
+		 * Kept so we can close it once the request completes. An unlinked file's disk space isn't freed until it's last descriptor is closed.
+		 */
+		private volatile InputStream _stream;
+
+		SpoolFile( final Path path ) {
+			_path = path;
+		}
+
+		Path path() {
+			return _path;
+		}
+
+		InputStream openStream() throws IOException {
+			_stream = new DeletingFileInputStream( _path );
+			return _stream;
+		}
+
+		/**
+		 * Close the stream (if opened) and delete the file
+		 */
+		void release() {
+			final InputStream stream = _stream;
+
+			if( stream != null ) {
+				try {
+					stream.close();
+				}
+				catch( IOException e ) {
+					logger.warn( "Failed to close spooled request body %s".formatted( _path ), e );
+				}
+			}
+
+			deleteQuietly( _path );
+		}
+	}
+
+	private static void deleteQuietly( final Path file ) {
+		try {
+			Files.deleteIfExists( file );
+		}
+		catch( IOException e ) {
+			logger.warn( "Failed to delete spooled request body %s".formatted( file ), e );
+		}
+	}
+
+	/**
+	 * An InputStream over a spooled file that deletes the file when closed
+	 */
+	private static class DeletingFileInputStream extends FilterInputStream {
+
+		private final Path _file;
+
+		public DeletingFileInputStream( final Path file ) throws IOException {
+			super( Files.newInputStream( file ) );
+			_file = file;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			}
+			finally {
+				deleteQuietly( _file );
+			}
+		}
+	}
+}
@@ -0,0 +1,287 @@
+package com.webobjects.appserver;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.MimeTypes;
+import org.eclipse.jetty.http.content.FileMappingHttpContentFactory;
+import org.eclipse.jetty.http.content.HttpContent;
+import org.eclipse.jetty.http.content.ResourceHttpContent;
+import org.eclipse.jetty.http.content.ValidatingCachingHttpContentFactory;
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.ResourceService;
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.resource.Resource;
+import org.eclipse.jetty.util.resource.ResourceFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.webobjects.foundation.NSBundle;
+
+import er.extensions.foundation.ERXProperties;
+
+/**
+ * Serves web server resources directly from the adaptor, without going through WOApplication.dispatchRequest()
+ *
+ * Handles URLs of the form [...]/AppName.woa/[requestHandlerKey]/[bundleName]/[path], where bundleName is "app" for the application bundle or a framework name.
+ * Also handles the URLs WO generates for resources it expects a web server to serve: [...]/AppName.woa/Contents/WebServerResources/[path] and [...]/FrameworkName.framework/WebServerResources/[path].
+ * The path is resolved against the bundle's WebServerResources directory. URLs we can't resolve to a file are passed on to the wrapped handler (i.e. WO).
+ *
+ * Resolved files and their content are kept in a bounded cache, keyed by bundle name and resource path (so both URL forms of a resource share an entry). Files of 1MB and larger (Jetty's default threshold) get memory mapped. ETag/Last-Modified, conditional (304) and range requests are handled by Jetty's ResourceService.
+ */
+
+public class WOJettyResourceHandler extends Handler.Wrapper {
+
+	private static final Logger logger = LoggerFactory.getLogger( WOJettyResourceHandler.class );
+
+	/**
+	 * Request handler keys whose URLs we'll try to serve directly
+	 */
+	private static final List<String> REQUEST_HANDLER_KEYS = List.of( ERXProperties.stringForKeyWithDefault( "JettyStaticResourcesRequestHandlerKeys", "res" ).split( "," ) );
+
+	/**
+	 * Maximum total size of cached content in bytes
+	 */
+	private static final long MAX_CACHE_SIZE = ERXProperties.longForKeyWithDefault( "JettyStaticResourcesMaxCacheSize", 256L * 1024 * 1024 );
+
+	/**
+	 * Maximum size of an individual file to keep in the cache. Larger files are served directly from disk.
+	 */
+	private static final int MAX_CACHED_FILE_SIZE = ERXProperties.intForKeyWithDefault( "JettyStaticResourcesMaxCachedFileSize", 16 * 1024 * 1024 );
+
+	/**
+	 * Maximum number of entries in the cache
+	 */
+	private static final int MAX_CACHED_FILES = ERXProperties.intForKeyWithDefault( "JettyStaticResourcesMaxCachedFiles", 2048 );
+
+	/**
+	 * Value of the cache-control header to send with served resources. No header is sent if not set.
+	 */
+	private static final String CACHE_CONTROL = ERXProperties.stringForKey( "JettyStaticResourcesCacheControl" );
+
+	/**
+	 * Name used in URLs for the application's own bundle
+	 */
+	private static final String APP_BUNDLE_NAME = "app";
+
+	/**
+	 * Path segment preceding the resource path in web server resource URLs
+	 */
+	private static final String WEB_SERVER_RESOURCES = "/WebServerResources/";
+
+	private final ResourceService _resourceService = new ResourceService();
+
+	public WOJettyResourceHandler( final Handler handler ) {
+		super( handler );
+	}
+
+	@Override
+	protected void doStart() throws Exception {
+		final ByteBufferPool.Sized bufferPool = new ByteBufferPool.Sized( getServer().getByteBufferPool() );
+
+		HttpContent.Factory contentFactory = new WOBundleContentFactory( bufferPool );
+		contentFactory = new FileMappingHttpContentFactory( contentFactory );
+
+		// Cached files are validated against the file system at most once a second, so changed resources get picked up (mostly useful during development)
+		final ValidatingCachingHttpContentFactory cachingFactory = new ValidatingCachingHttpContentFactory( contentFactory, 1000, bufferPool );
+		cachingFactory.setMaxCacheSize( MAX_CACHE_SIZE );
+		cachingFactory.setMaxCachedFileSize( MAX_CACHED_FILE_SIZE );
+		cachingFactory.setMaxCachedFiles( MAX_CACHED_FILES );
+
+		_resourceService.setHttpContentFactory( cachingFactory );
+		_resourceService.setEtags( true );
+		_resourceService.setAcceptRanges( true );
+
+		if( CACHE_CONTROL != null ) {
+			_resourceService.setCacheControl( CACHE_CONTROL );
+		}
+
+		logger.info( "Serving static resources directly for request handler keys %s".formatted( REQUEST_HANDLER_KEYS ) );
+
+		super.doStart();
+	}
+
+	@Override
+	public boolean handle( final Request request, final Response response, final Callback callback ) throws Exception {
+
+		final String method = request.getMethod();
+
+		if( HttpMethod.GET.is( method ) || HttpMethod.HEAD.is( method ) ) {
+			final ResourcePath resourcePath = ResourcePath.parse( Request.getPathInContext( request ) );
+
+			if( resourcePath != null ) {
+				final HttpContent content = _resourceService.getContent( resourcePath.key(), request );
+
+				if( content != null ) {
+					_resourceService.doGet( request, response, callback, content );
+					return true;
+				}
+			}
+		}
+
+		return super.handle( request, response, callback );
+	}
+
+	/**
+	 * A resource URL broken up into it's parts
+	 */
+	private record ResourcePath( String bundleName, String resourcePath ) {
+
+		/**
+		 * @return The key we pass to the content factory (and cache content under), [bundleName]/[resourcePath]. Bundle names never contain a slash.
+		 */
+		String key() {
+			return bundleName + "/" + resourcePath;
+		}
+
+		/**
+		 * @return The resource path for the given key, as returned by key()
+		 */
+		static ResourcePath fromKey( final String key ) {
+			final int slashIndex = key.indexOf( '/' );
+			return slashIndex == -1 ? null : new ResourcePath( key.substring( 0, slashIndex ), key.substring( slashIndex + 1 ) );
+		}
+
+		/**
+		 * @return The resource path for the given URL path, null if it's not a resource URL
+		 */
+		static ResourcePath parse( final String path ) {
+			final ResourcePath resourcePath = parseRequestHandlerURL( path );
+			return resourcePath != null ? resourcePath : parseWebServerResourcesURL( path );
+		}
+
+		/**
+		 * @return The resource path for a [...]/AppName.woa/[requestHandlerKey]/[bundleName]/[path] URL, null if it isn't one
+		 */
+		private static ResourcePath parseRequestHandlerURL( final String path ) {
+
+			final int woaIndex = path.indexOf( ".woa/" );
+
+			if( woaIndex == -1 ) {
+				return null;
+			}
+
+			// What's left is [requestHandlerKey]/[bundleName]/[resourcePath]
+			final String[] parts = path.substring( woaIndex + 5 ).split( "/", 3 );
+
+			if( parts.length < 3 || !REQUEST_HANDLER_KEYS.contains( parts[0] ) || parts[1].isEmpty() || parts[2].isEmpty() ) {
+				return null;
+			}
+
+			return new ResourcePath( parts[1], parts[2] );
+		}
+
+		/**
+		 * @return The resource path for a [...]/AppName.woa/Contents/WebServerResources/[path] or [...]/FrameworkName.framework/WebServerResources/[path] URL, null if it isn't one
+		 */
+		private static ResourcePath parseWebServerResourcesURL( final String path ) {
+
+			final int index = path.indexOf( WEB_SERVER_RESOURCES );
+
+			if( index == -1 || index + WEB_SERVER_RESOURCES.length() == path.length() ) {
+				return null;
+			}
+
+			final String bundlePath = path.substring( 0, index );
+			final String resourcePath = path.substring( index + WEB_SERVER_RESOURCES.length() );
+
+			if( bundlePath.endsWith( ".woa/Contents" ) ) {
+				return new ResourcePath( APP_BUNDLE_NAME, resourcePath );
+			}
+
+			final String bundleDirectoryName = bundlePath.substring( bundlePath.lastIndexOf( '/' ) + 1 );
+
+			if( bundleDirectoryName.endsWith( ".framework" ) && bundleDirectoryName.length() > ".framework".length() ) {
+				return new ResourcePath( bundleDirectoryName.substring( 0, bundleDirectoryName.length() - ".framework".length() ), resourcePath );
+			}
+
+			return null;
+		}
+	}
+
+	/**
+	 * Resolves resource keys (see ResourcePath.key()) to files in bundles' WebServerResources directories
+	 */
+	private static class WOBundleContentFactory implements HttpContent.Factory {
+
+		private final ByteBufferPool.Sized _bufferPool;
+
+		/**
+		 * Cache of bundle names to their WebServerResources directories. Only bundles that have one in the file system get cached, since bundle names come from URLs and we don't want to remember every made up one.
+		 */
+		private final Map<String, Resource> _webServerResourcesDirectories = new ConcurrentHashMap<>();
+
+		public WOBundleContentFactory( final ByteBufferPool.Sized bufferPool ) {
+			_bufferPool = bufferPool;
+		}
+
+		@Override
+		public HttpContent getContent( final String key ) throws IOException {
+			final ResourcePath resourcePath = ResourcePath.fromKey( key );
+
+			if( resourcePath == null ) {
+				return null;
+			}
+
+			// A null directory (no such bundle, or not in the file system) isn't stored by computeIfAbsent()
+			final Resource directory = _webServerResourcesDirectories.computeIfAbsent( resourcePath.bundleName(), WOBundleContentFactory::webServerResourcesDirectory );
+
+			if( directory == null ) {
+				return null;
+			}
+
+			final Resource resource = directory.resolve( resourcePath.resourcePath() );
+
+			// The containment check ensures we never serve anything from outside the WebServerResources directory
+			if( resource == null || !resource.exists() || resource.isDirectory() || !resource.isContainedIn( directory ) ) {
+				return null;
+			}
+
+			return new ResourceHttpContent( resource, MimeTypes.DEFAULTS.getMimeByExtension( resourcePath.resourcePath() ), _bufferPool );
+		}
+
+		/**
+		 * @return The WebServerResources directory of the named bundle, null if the bundle doesn't exist or doesn't have it's resources in the file system (i.e. is a jar)
+		 */
+		private static Resource webServerResourcesDirectory( final String bundleName ) {
+			final NSBundle bundle = APP_BUNDLE_NAME.equals( bundleName ) ? NSBundle.mainBundle() : NSBundle.bundleForName( bundleName );
+
+			if( bundle == null ) {
+				return null;
+			}
+
+			final URL bundleURL = bundle.bundlePathURL();
+
+			if( bundleURL == null || !"file".equals( bundleURL.getProtocol() ) ) {
+				return null;
+			}
+
+			try {
+				final Path bundlePath = Path.of( bundleURL.toURI() );
+
+				// Applications keep their resources under Contents, frameworks (and some development layouts) at the bundle root
+				for( final Path candidate : List.of( bundlePath.resolve( "Contents/WebServerResources" ), bundlePath.resolve( "WebServerResources" ) ) ) {
+					if( Files.isDirectory( candidate ) ) {
+						logger.debug( "Serving resources for bundle '%s' from %s".formatted( bundleName, candidate ) );
+						return ResourceFactory.root().newResource( candidate );
+					}
+				}
+			}
+			catch( URISyntaxException e ) {
+				logger.warn( "Unable to resolve location of bundle '%s'".formatted( bundleName ), e );
+			}
+
+			return null;
+		}
+	}
+}
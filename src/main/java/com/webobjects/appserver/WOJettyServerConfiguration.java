@@ -0,0 +1,266 @@
+package com.webobjects.appserver;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.server.AbstractConnector;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import er.extensions.foundation.ERXProperties;
+
+/**
+ * Connector and thread pool configuration of the default server, read from properties.
+ *
+ * Defaults not fixed by Jetty are derived from the number of available cores. The effective configuration is logged at startup and exposed through JMX as com.webobjects.appserver:type=WOJettyServer,
+ * where the thread pool size and idle timeouts can also be adjusted while the server is running.
+ *
+ * @param acceptors Threads accepting connections on each connector. 0 to accept on the selector threads.
+ * @param selectors Selector threads (handling I/O) of each connector
+ * @param minThreads Minimum size of the thread pool
+ * @param maxThreads Maximum size of the thread pool. Must leave room for requests after the acceptors and selectors of every connector, or the server fails to start.
+ * @param threadIdleTimeout Time (in milliseconds) an idle thread is kept around, while the pool is above it's minimum size
+ * @param idleTimeout Time (in milliseconds) an idle connection is kept open
+ * @param requestHeaderSize Maximum size (in bytes) of a request's headers
+ * @param responseHeaderSize Maximum size (in bytes) of a response's headers
+ * @param outputBufferSize Size (in bytes) of a response's output buffer. Responses fitting in it can be sent with a content-length, rather than chunked.
+ */
+
+public record WOJettyServerConfiguration( int acceptors, int selectors, int minThreads, int maxThreads, int threadIdleTimeout, long idleTimeout, int requestHeaderSize, int responseHeaderSize, int outputBufferSize ) {
+
+	private static final Logger logger = LoggerFactory.getLogger( WOJettyServerConfiguration.class );
+
+	/**
+	 * Name under which our MBean is registered
+	 */
+	private static final String MBEAN_NAME = "com.webobjects.appserver:type=WOJettyServer";
+
+	public WOJettyServerConfiguration {
+		if( acceptors < 0 || selectors < 1 ) {
+			throw new IllegalArgumentException( "Invalid acceptor (%s) or selector (%s) count".formatted( acceptors, selectors ) );
+		}
+
+		if( minThreads < 1 || maxThreads < minThreads ) {
+			throw new IllegalArgumentException( "Invalid thread pool size, min %s, max %s".formatted( minThreads, maxThreads ) );
+		}
+
+		// Acceptors and selectors each hold on to a pool thread for good, on every connector (TCP, Unix socket, TLS), so the pool needs room for all of them and for requests.
+		// That's checked by Jetty's ThreadPoolBudget when the server starts, since only then do we know which connectors exist.
+	}
+
+	/**
+	 * @return The configuration set by properties, falling back to defaults
+	 */
+	static WOJettyServerConfiguration fromProperties() {
+		final int cores = Runtime.getRuntime().availableProcessors();
+		final int maxThreads = ERXProperties.intForKeyWithDefault( "JettyMaxThreads", Math.max( 200, cores * 25 ) );
+
+		return new WOJettyServerConfiguration(
+				ERXProperties.intForKeyWithDefault( "JettyAcceptors", Math.max( 1, Math.min( 4, cores / 8 ) ) ),
+				ERXProperties.intForKeyWithDefault( "JettySelectors", Math.max( 1, cores / 2 ) ),
+				ERXProperties.intForKeyWithDefault( "JettyMinThreads", Math.min( Math.max( 8, cores ), maxThreads ) ), // The default never exceeds a configured maximum
+				maxThreads,
+				ERXProperties.intForKeyWithDefault( "JettyThreadIdleTimeout", 60000 ),
+				ERXProperties.longForKeyWithDefault( "JettyIdleTimeout", 30000 ),
+				ERXProperties.intForKeyWithDefault( "JettyRequestHeaderSize", 8192 ),
+				ERXProperties.intForKeyWithDefault( "JettyResponseHeaderSize", 8192 ),
+				ERXProperties.intForKeyWithDefault( "JettyOutputBufferSize", 32768 ) );
+	}
+
+	/**
+	 * Apply our header and buffer sizes to the given HTTP configuration
+	 */
+	void applyTo( final HttpConfiguration config ) {
+		config.setRequestHeaderSize( requestHeaderSize );
+		config.setResponseHeaderSize( responseHeaderSize );
+		config.setOutputBufferSize( outputBufferSize );
+	}
+
+	/**
+	 * @return A thread pool sized by our configuration
+	 */
+	QueuedThreadPool newThreadPool() {
+		return new QueuedThreadPool( maxThreads, minThreads, threadIdleTimeout );
+	}
+
+	/**
+	 * Register an MBean exposing the effective configuration of the given server (created with this configuration), replacing the MBean of any previous server
+	 */
+	void registerMBean( final Server server ) {
+		try {
+			final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName name = new ObjectName( MBEAN_NAME );
+
+			if( mbeanServer.isRegistered( name ) ) {
+				mbeanServer.unregisterMBean( name );
+			}
+
+			mbeanServer.registerMBean( new StandardMBean( new ServerMBeanImpl( server, this ), ServerMBean.class ), name );
+		}
+		catch( Exception e ) {
+			logger.warn( "Failed to register server MBean", e );
+		}
+	}
+
+	/**
+	 * The server's configuration and thread pool state, exposed through JMX. Thread pool size and idle timeouts can be set.
+	 */
+	public interface ServerMBean {
+		int getAcceptors();
+		int getSelectors();
+		int getMinThreads();
+		void setMinThreads( int minThreads );
+		int getMaxThreads();
+		void setMaxThreads( int maxThreads );
+		int getThreadIdleTimeout();
+		void setThreadIdleTimeout( int threadIdleTimeout );
+		long getIdleTimeout();
+		void setIdleTimeout( long idleTimeout );
+		int getRequestHeaderSize();
+		int getResponseHeaderSize();
+		int getOutputBufferSize();
+		int getThreads();
+		int getBusyThreads();
+		int getIdleThreads();
+		int getQueueSize();
+	}
+
+	private static class ServerMBeanImpl implements ServerMBean {
+
+		private final Server _server;
+
+		/**
+		 * The configuration the server was created with. Acceptors, selectors and buffer sizes are fixed once it's running.
+		 */
+		private final WOJettyServerConfiguration _configuration;
+
+		ServerMBeanImpl( final Server server, final WOJettyServerConfiguration configuration ) {
+			_server = server;
+			_configuration = configuration;
+		}
+
+		private QueuedThreadPool threadPool() {
+			return (QueuedThreadPool)_server.getThreadPool();
+		}
+
+		@Override
+		public int getAcceptors() {
+			return _configuration.acceptors();
+		}
+
+		@Override
+		public int getSelectors() {
+			return _configuration.selectors();
+		}
+
+		@Override
+		public int getMinThreads() {
+			return threadPool().getMinThreads();
+		}
+
+		@Override
+		public void setMinThreads( final int minThreads ) {
+			if( minThreads < 1 || minThreads > getMaxThreads() ) {
+				throw new IllegalArgumentException( "Minimum threads must be between 1 and the maximum (%s)".formatted( getMaxThreads() ) );
+			}
+
+			threadPool().setMinThreads( minThreads );
+			logger.info( "Minimum threads set to %s".formatted( minThreads ) );
+		}
+
+		@Override
+		public int getMaxThreads() {
+			return threadPool().getMaxThreads();
+		}
+
+		@Override
+		public void setMaxThreads( final int maxThreads ) {
+			// Threads leased for good by acceptors and selectors don't serve requests, so the pool must be larger than that
+			final int leased = threadPool().getLeasedThreads();
+
+			if( maxThreads < getMinThreads() || maxThreads <= leased ) {
+				throw new IllegalArgumentException( "Maximum threads must be at least the minimum (%s) and larger than the threads leased to acceptors and selectors (%s)".formatted( getMinThreads(), leased ) );
+			}
+
+			threadPool().setMaxThreads( maxThreads );
+			logger.info( "Maximum threads set to %s".formatted( maxThreads ) );
+		}
+
+		@Override
+		public int getThreadIdleTimeout() {
+			return threadPool().getIdleTimeout();
+		}
+
+		@Override
+		public void setThreadIdleTimeout( final int threadIdleTimeout ) {
+			threadPool().setIdleTimeout( threadIdleTimeout );
+			logger.info( "Thread idle timeout set to %sms".formatted( threadIdleTimeout ) );
+		}
+
+		@Override
+		public long getIdleTimeout() {
+			return _server.getConnectors()[0].getIdleTimeout();
+		}
+
+		/**
+		 * Applies to new connections, and to those already open
+		 */
+		@Override
+		public void setIdleTimeout( final long idleTimeout ) {
+			for( final Connector connector : _server.getConnectors() ) {
+				if( connector instanceof AbstractConnector abstractConnector ) {
+					abstractConnector.setIdleTimeout( idleTimeout );
+
+					for( final EndPoint endPoint : abstractConnector.getConnectedEndPoints() ) {
+						endPoint.setIdleTimeout( idleTimeout );
+					}
+				}
+			}
+
+			logger.info( "Connection idle timeout set to %sms".formatted( idleTimeout ) );
+		}
+
+		@Override
+		public int getRequestHeaderSize() {
+			return _configuration.requestHeaderSize();
+		}
+
+		@Override
+		public int getResponseHeaderSize() {
+			return _configuration.responseHeaderSize();
+		}
+
+		@Override
+		public int getOutputBufferSize() {
+			return _configuration.outputBufferSize();
+		}
+
+		@Override
+		public int getThreads() {
+			return threadPool().getThreads();
+		}
+
+		@Override
+		public int getBusyThreads() {
+			return threadPool().getBusyThreads();
+		}
+
+		@Override
+		public int getIdleThreads() {
+			return threadPool().getIdleThreads();
+		}
+
+		@Override
+		public int getQueueSize() {
+			return threadPool().getQueueSize();
+		}
+	}
+}
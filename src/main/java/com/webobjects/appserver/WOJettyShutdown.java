@@ -0,0 +1,189 @@
+package com.webobjects.appserver;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.io.Content;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.GracefulHandler;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.component.Graceful;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.webobjects.appserver.websocket.WOWebSocketSessions;
+
+import er.extensions.foundation.ERXProperties;
+
+/**
+ * Graceful shutdown and readiness.
+ *
+ * The adaptor reports itself ready (at READINESS_PATH, if set) once the server has started. Shutting down then goes like this:
+ *
+ * 1. Readiness flips to "not ready", and we wait READINESS_DELAY for the load balancer's health checks to notice and stop sending us traffic.
+ *    If the port is shared with other instances (JettyReusePort), we close our listener first, so the kernel sends new connections to them. On Linux, connections already queued on our listener (but not yet accepted) still get reset.
+ * 2. Connectors stop accepting connections and in-flight requests get to finish. New requests on open connections get a 503.
+ * 3. Open WebSockets are sent a 1001 (going away) close frame, with a randomized reconnect hint, so clients don't all come knocking at the same moment. Since we've stopped accepting by then, reconnects go elsewhere.
+ * 4. Once everything has drained, or GRACE_PERIOD has passed, the server is stopped, aborting whatever is still going on.
+ *
+ * In-flight requests are counted by the GracefulHandler in our default server's handler chain. A server from a JettyServerProvider needs one of it's own for requests to be waited for.
+ */
+
+public class WOJettyShutdown {
+
+	private static final Logger logger = LoggerFactory.getLogger( WOJettyShutdown.class );
+
+	/**
+	 * Maximum time (in milliseconds) in-flight requests and WebSocket close handshakes get to finish before the server is stopped
+	 */
+	private static final long GRACE_PERIOD = ERXProperties.longForKeyWithDefault( "JettyShutdownGracePeriod", 30000 );
+
+	/**
+	 * Time (in milliseconds) between reporting "not ready" and starting the drain. Should be long enough for the load balancer's health checks to notice.
+	 */
+	private static final long READINESS_DELAY = ERXProperties.longForKeyWithDefault( "JettyShutdownReadinessDelay", 0 );
+
+	/**
+	 * Path at which readiness is served, 200 when ready and 503 otherwise. Not served if not set.
+	 */
+	static final String READINESS_PATH = ERXProperties.stringForKey( "JettyReadinessPath" );
+
+	/**
+	 * Upper bound (in milliseconds) of the random reconnect delay suggested to WebSocket clients
+	 */
+	private static final long WEBSOCKET_RECONNECT_MAX_DELAY = ERXProperties.longForKeyWithDefault( "JettyShutdownWebSocketReconnectMaxDelay", 10000 );
+
+	/**
+	 * Interval (in milliseconds) at which we check if WebSocket sessions have closed
+	 */
+	private static final long POLL_INTERVAL = 50;
+
+	/**
+	 * True from server startup until shutdown begins
+	 */
+	private static volatile boolean ready;
+
+	/**
+	 * @return true if the server has started and isn't shutting down
+	 */
+	public static boolean isReady() {
+		return ready;
+	}
+
+	/**
+	 * Report the server ready to receive traffic. Invoked once the server has started.
+	 */
+	static void setReady() {
+		ready = true;
+		logger.info( "Ready" );
+	}
+
+	/**
+	 * The outcome of a shutdown
+	 *
+	 * @param drainedRequests Requests in flight when the drain began, that finished within the grace period
+	 * @param abortedRequests Requests still in flight when the grace period ran out
+	 * @param closedWebSockets WebSocket sessions that completed their close handshake within the grace period
+	 * @param abortedWebSockets WebSocket sessions still open when the grace period ran out
+	 */
+	record Result( long drainedRequests, long abortedRequests, int closedWebSockets, int abortedWebSockets ) {}
+
+	/**
+	 * Gracefully shut down and stop the given server
+	 */
+	static Result shutdown( final Server server ) throws Exception {
+		ready = false;
+
+		closeReusePortConnectors( server );
+
+		if( READINESS_DELAY > 0 ) {
+			logger.info( "Not ready, waiting %sms before draining".formatted( READINESS_DELAY ) );
+			Thread.sleep( READINESS_DELAY );
+		}
+
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( GRACE_PERIOD );
+
+		final GracefulHandler gracefulHandler = server.getDescendant( GracefulHandler.class );
+		final long inFlightRequests = gracefulHandler != null ? gracefulHandler.getCurrentRequestCount() : 0;
+
+		// Stops the connectors from accepting and waits for in-flight requests. Done before closing WebSockets, so clients reconnecting don't land on us again.
+		final CompletableFuture<Void> drained = Graceful.shutdown( server );
+
+		final int openWebSockets = WOWebSocketSessions.closeAll( StatusCode.SHUTDOWN, () -> "Shutting down; reconnect-delay=" + ThreadLocalRandom.current().nextLong( WEBSOCKET_RECONNECT_MAX_DELAY + 1 ) );
+
+		logger.info( "Draining %s in-flight requests and %s WebSockets, grace period %sms".formatted( inFlightRequests, openWebSockets, GRACE_PERIOD ) );
+
+		try {
+			drained.get( remainingMillis( deadline ), TimeUnit.MILLISECONDS );
+		}
+		catch( TimeoutException e ) {
+			logger.warn( "Grace period ran out before in-flight requests finished" );
+		}
+
+		while( WOWebSocketSessions.sessionCount() > 0 && remainingMillis( deadline ) > 0 ) {
+			Thread.sleep( POLL_INTERVAL );
+		}
+
+		final long abortedRequests = gracefulHandler != null ? gracefulHandler.getCurrentRequestCount() : 0;
+		final int abortedWebSockets = WOWebSocketSessions.sessionCount();
+		final Result result = new Result( Math.max( inFlightRequests - abortedRequests, 0 ), abortedRequests, Math.max( openWebSockets - abortedWebSockets, 0 ), abortedWebSockets );
+
+		logger.info( "Drained %s requests and closed %s WebSockets. Aborting %s requests and %s WebSockets".formatted( result.drainedRequests(), result.closedWebSockets(), result.abortedRequests(), result.abortedWebSockets() ) );
+
+		server.stop();
+
+		return result;
+	}
+
+	/**
+	 * Stop listening on ports we share with other instances using SO_REUSEPORT, so new connections go to them rather than to us while we drain
+	 */
+	private static void closeReusePortConnectors( final Server server ) {
+		for( final Connector connector : server.getConnectors() ) {
+			if( connector instanceof ServerConnector serverConnector && serverConnector.isReusePort() ) {
+				logger.info( "Closing listener on shared port %s".formatted( serverConnector.getLocalPort() ) );
+				serverConnector.close();
+			}
+		}
+	}
+
+	private static long remainingMillis( final long deadline ) {
+		return Math.max( TimeUnit.NANOSECONDS.toMillis( deadline - System.nanoTime() ), 0 );
+	}
+
+	/**
+	 * Serves readiness at READINESS_PATH, passing all other requests on to the wrapped handler
+	 */
+	static class ReadinessHandler extends Handler.Wrapper {
+
+		public ReadinessHandler( final Handler handler ) {
+			super( handler );
+		}
+
+		@Override
+		public boolean handle( final Request request, final Response response, final Callback callback ) throws Exception {
+
+			if( READINESS_PATH.equals( request.getHttpURI().getPath() ) && HttpMethod.GET.is( request.getMethod() ) ) {
+				final boolean isReady = ready;
+
+				response.setStatus( isReady ? 200 : 503 );
+				response.getHeaders().put( HttpHeader.CONTENT_TYPE, "text/plain; charset=utf-8" );
+				response.getHeaders().put( HttpHeader.CACHE_CONTROL, "no-store" );
+				Content.Sink.write( response, true, isReady ? "ready" : "not ready", callback );
+				return true;
+			}
+
+			return super.handle( request, response, callback );
+		}
+	}
+}
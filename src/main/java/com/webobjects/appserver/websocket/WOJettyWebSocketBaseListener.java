@@ -0,0 +1,123 @@
+package com.webobjects.appserver.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+import org.eclipse.jetty.websocket.api.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Connection lifecycle shared by our Jetty WebSocket listeners. Subclasses handle messages, either whole (WOJettyWebSocketListener) or in fragments (WOJettyWebSocketStreamingListener).
+ * They're separate classes because Jetty decides whether to assemble messages by looking at which listener methods a class overrides.
+ *
+ * Handler callbacks run inline or on an executor, see WOWebSocketDispatch. Either way, the next frame is only demanded once the handler is done with the previous one.
+ */
+
+public abstract class WOJettyWebSocketBaseListener implements Session.Listener {
+
+	private static final Logger logger = LoggerFactory.getLogger( WOJettyWebSocketBaseListener.class );
+
+	final WOWebSocketHandler _handler;
+	private final String _path;
+
+	/**
+	 * The upgrade request. Released once the handler's onConnect() has seen it, since connections can live long.
+	 */
+	private WOWebSocketHandshakeRequest _handshakeRequest;
+
+	WOJettyWebSocketSession _woWebSocketSession;
+
+	/**
+	 * Runs this session's handler callbacks, in order. Null if they run inline.
+	 */
+	private final Executor _executor = WOWebSocketDispatch.sessionExecutor();
+
+	WOJettyWebSocketBaseListener( WOWebSocketHandler handler, String path, WOWebSocketHandshakeRequest handshakeRequest ) {
+		_handler = handler;
+		_path = path;
+		_handshakeRequest = handshakeRequest;
+	}
+
+	@Override
+	public void onWebSocketOpen( Session session ) {
+		final String woSessionID = _handshakeRequest != null ? _handshakeRequest.sessionID() : null;
+		_woWebSocketSession = new WOJettyWebSocketSession( session, _path, woSessionID );
+
+		// Indexed before onConnect, so the handler can find the session (and have messages targeted at it) right away
+		WOWebSocketSessions.add( _woWebSocketSession );
+
+		dispatch( () -> {
+			try {
+				_handler.onConnect( _woWebSocketSession, _handshakeRequest );
+			}
+			catch( Exception e ) {
+				logger.error( "Error in WebSocket onConnect handler", e );
+				_handler.onError( _woWebSocketSession, e );
+			}
+
+			_handshakeRequest = null;
+
+			// Start demanding messages
+			session.demand();
+		} );
+	}
+
+	@Override
+	public void onWebSocketPong( ByteBuffer payload ) {
+		_woWebSocketSession.pongReceived();
+
+		// Pongs consume demand like any other frame, so we have to demand the next one
+		_woWebSocketSession.jettySession().demand();
+	}
+
+	@Override
+	public void onWebSocketClose( int statusCode, String reason ) {
+		_woWebSocketSession.stopHeartbeat();
+		WOWebSocketTopics.unsubscribeAll( _woWebSocketSession );
+		WOWebSocketSessions.remove( _woWebSocketSession );
+
+		// Dispatched like messages, so the handler sees the close after any message it's still processing
+		dispatch( () -> {
+			try {
+				_handler.onClose( _woWebSocketSession, statusCode, reason );
+			}
+			catch( Exception e ) {
+				logger.error( "Error in WebSocket onClose handler", e );
+			}
+		} );
+	}
+
+	@Override
+	public void onWebSocketError( Throwable cause ) {
+		dispatch( () -> {
+			try {
+				_handler.onError( _woWebSocketSession, cause );
+			}
+			catch( Exception e ) {
+				logger.error( "Error in WebSocket onError handler", e );
+			}
+		} );
+	}
+
+	/**
+	 * Run a handler callback, inline or on this session's executor
+	 */
+	void dispatch( final Runnable callback ) {
+		if( _executor == null ) {
+			callback.run();
+		}
+		else {
+			_executor.execute( callback );
+		}
+	}
+
+	/**
+	 * Demand the next frame, if the session is still open
+	 */
+	void demand() {
+		if( _woWebSocketSession != null && _woWebSocketSession.isOpen() ) {
+			_woWebSocketSession.jettySession().demand();
+		}
+	}
+}
\ No newline at end of file
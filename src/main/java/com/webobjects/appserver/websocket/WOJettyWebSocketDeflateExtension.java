@@ -0,0 +1,145 @@
+package com.webobjects.appserver.websocket;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.eclipse.jetty.websocket.core.ExtensionConfig;
+import org.eclipse.jetty.websocket.core.Frame;
+import org.eclipse.jetty.websocket.core.OpCode;
+import org.eclipse.jetty.websocket.core.OutgoingEntry;
+import org.eclipse.jetty.websocket.core.WebSocketComponents;
+import org.eclipse.jetty.websocket.core.internal.PerMessageDeflateExtension;
+
+import com.webobjects.appserver.WOJettyMetrics;
+
+import er.extensions.foundation.ERXProperties;
+
+/**
+ * Jetty's permessage-deflate extension, with a minimum message size, optional context takeover and byte counters.
+ *
+ * Messages smaller than MIN_SIZE are sent uncompressed (which permessage-deflate allows per message) since deflating a few bytes costs more CPU than it saves bandwidth.
+ * Passing such a message straight through is only safe since our sessions send one message at a time (see WOWebSocketSendQueue), so a compressed message can never be waiting in Jetty's flusher behind it.
+ * Without context takeover, each message is compressed on it's own. Compresses worse, but the connection doesn't have to keep a 32KB compression window around between messages.
+ *
+ * Outgoing payload bytes are counted per endpoint path, both before (raw) and after (wire) compression.
+ *
+ * Note that this class extends org.eclipse.jetty.websocket.core.internal.PerMessageDeflateExtension, which is internal Jetty API. It can change or go away in any Jetty release, breaking this class on upgrade.
+ * That's why this subclass is only registered if it's needed, i.e. if one of it's settings is used or metrics are enabled (see isRequired()). Otherwise, Jetty's own extension is used, and the byte counters stay empty.
+ */
+
+public class WOJettyWebSocketDeflateExtension extends PerMessageDeflateExtension {
+
+	/**
+	 * Messages smaller than this (in bytes) are sent uncompressed
+	 */
+	private static final int MIN_SIZE = ERXProperties.intForKeyWithDefault( "JettyWebSocketCompressionMinSize", 0 );
+
+	/**
+	 * If false, both ends compress each message without reference to previous ones
+	 */
+	private static final boolean CONTEXT_TAKEOVER = ERXProperties.booleanForKeyWithDefault( "JettyWebSocketCompressionContextTakeover", true );
+
+	/**
+	 * Byte counters by endpoint path
+	 */
+	private static final Map<String, Counters> countersByPath = new ConcurrentHashMap<>();
+
+	/**
+	 * This connection's counters. Resolved on first send, since we don't know the connection's path when we're initialized.
+	 */
+	private Counters _counters;
+
+	/**
+	 * @return true if the minimum size or context takeover are configured, or metrics are enabled (which report our byte counters), requiring us to replace Jetty's own extension
+	 */
+	static boolean isRequired() {
+		return MIN_SIZE > 0 || !CONTEXT_TAKEOVER || WOJettyMetrics.isEnabled();
+	}
+
+	@Override
+	public void init( ExtensionConfig config, WebSocketComponents components ) {
+
+		if( !CONTEXT_TAKEOVER ) {
+			// The server may request either of these even if the client didn't offer them
+			config = new ExtensionConfig( config );
+			config.setParameter( "server_no_context_takeover" );
+			config.setParameter( "client_no_context_takeover" );
+		}
+
+		super.init( config, components );
+	}
+
+	@Override
+	public void sendFrame( OutgoingEntry entry ) {
+		final Frame frame = entry.getFrame();
+
+		if( frame.isDataFrame() ) {
+			counters().raw.add( frame.getPayloadLength() );
+
+			// Only whole messages can skip compression. A fragmented message's first frame decides for all of it.
+			if( frame.getPayloadLength() < MIN_SIZE && frame.isFin() && frame.getOpCode() != OpCode.CONTINUATION ) {
+				counters().skippedMessages.increment();
+				nextOutgoingFrame( entry );
+				return;
+			}
+		}
+
+		super.sendFrame( entry );
+	}
+
+	@Override
+	protected void nextOutgoingFrame( OutgoingEntry entry ) {
+		final Frame frame = entry.getFrame();
+
+		if( frame.isDataFrame() ) {
+			counters().wire.add( frame.getPayloadLength() );
+		}
+
+		super.nextOutgoingFrame( entry );
+	}
+
+	private Counters counters() {
+		if( _counters == null ) {
+			final String path = getCoreSession() != null && getCoreSession().getRequestURI() != null ? getCoreSession().getRequestURI().getPath() : "";
+			_counters = countersByPath.computeIfAbsent( path, p -> new Counters() );
+		}
+
+		return _counters;
+	}
+
+	/**
+	 * @return Outgoing payload bytes before compression, by endpoint path
+	 */
+	static Map<String, Long> rawBytesByPath() {
+		return sums( c -> c.raw );
+	}
+
+	/**
+	 * @return Outgoing payload bytes after compression (or of messages sent uncompressed), by endpoint path
+	 */
+	static Map<String, Long> wireBytesByPath() {
+		return sums( c -> c.wire );
+	}
+
+	/**
+	 * @return Number of messages sent uncompressed for being smaller than MIN_SIZE, by endpoint path
+	 */
+	static Map<String, Long> skippedMessagesByPath() {
+		return sums( c -> c.skippedMessages );
+	}
+
+	private static Map<String, Long> sums( final Function<Counters, LongAdder> counter ) {
+		final Map<String, Long> sums = new HashMap<>();
+		countersByPath.forEach( ( path, counters ) -> sums.put( path, counter.apply( counters ).sum() ) );
+		return sums;
+	}
+
+	private static class Counters {
+		final LongAdder raw = new LongAdder();
+		final LongAdder wire = new LongAdder();
+		final LongAdder skippedMessages = new LongAdder();
+	}
+}
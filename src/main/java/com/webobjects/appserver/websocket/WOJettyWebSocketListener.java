@@ -3,91 +3,76 @@ package com.webobjects.appserver.websocket;
 import java.nio.ByteBuffer;
 
 import org.eclipse.jetty.websocket.api.Callback;
-import org.eclipse.jetty.websocket.api.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.webobjects.appserver.WORequest;
 
 /**
- * Jetty WebSocket listener that delegates to a WOWebSocketHandler.
+ * Jetty WebSocket listener that delegates to a WOWebSocketHandler, one whole message at a time.
+ *
+ * Jetty assembles each message before handing it to us, up to the container's maximum text/binary message size.
  */
 
-public class WOJettyWebSocketListener implements Session.Listener {
+public class WOJettyWebSocketListener extends WOJettyWebSocketBaseListener {
 
 	private static final Logger logger = LoggerFactory.getLogger( WOJettyWebSocketListener.class );
 
-	private final WOWebSocketHandler _handler;
-	private final WORequest _initialRequest;
-	private WOJettyWebSocketSession _woWebSocketSession;
-
-	public WOJettyWebSocketListener( WOWebSocketHandler handler, WORequest initialRequest ) {
-		_handler = handler;
-		_initialRequest = initialRequest;
+	public WOJettyWebSocketListener( WOWebSocketHandler handler, WOWebSocketHandshakeRequest handshakeRequest ) {
+		this( handler, null, handshakeRequest );
 	}
 
-	@Override
-	public void onWebSocketOpen( Session session ) {
-		_woWebSocketSession = new WOJettyWebSocketSession( session );
-
-		try {
-			_handler.onConnect( _woWebSocketSession, _initialRequest );
-		}
-		catch( Exception e ) {
-			logger.error( "Error in WebSocket onConnect handler", e );
-			_handler.onError( _woWebSocketSession, e );
-		}
-
-		// Start demanding messages
-		session.demand();
+	public WOJettyWebSocketListener( WOWebSocketHandler handler, String path, WOWebSocketHandshakeRequest handshakeRequest ) {
+		super( handler, path, handshakeRequest );
 	}
 
-	@Override
-	public void onWebSocketText( String message ) {
-		try {
-			_handler.onTextMessage( _woWebSocketSession, message );
-		}
-		catch( Exception e ) {
-			logger.error( "Error in WebSocket onTextMessage handler", e );
-			_handler.onError( _woWebSocketSession, e );
-		}
-
-		// Demand more data for the next message
-		if( _woWebSocketSession != null && _woWebSocketSession.isOpen() ) {
-			_woWebSocketSession.jettySession().demand();
-		}
+	/**
+	 * Listeners are now created with a WOWebSocketHandshakeRequest. Kept so existing code creating listeners still compiles.
+	 */
+	@Deprecated
+	public WOJettyWebSocketListener( WOWebSocketHandler handler, WORequest initialRequest ) {
+		this( handler, null, initialRequest );
 	}
 
-	@Override
-	public void onWebSocketBinary( ByteBuffer payload, Callback callback ) {
-		try {
-			_handler.onBinaryMessage( _woWebSocketSession, payload );
-			callback.succeed();
-		}
-		catch( Exception e ) {
-			logger.error( "Error in WebSocket onBinaryMessage handler", e );
-			_handler.onError( _woWebSocketSession, e );
-			callback.fail( e );
-		}
+	/**
+	 * Listeners are now created with a WOWebSocketHandshakeRequest. Kept so existing code creating listeners still compiles.
+	 */
+	@Deprecated
+	public WOJettyWebSocketListener( WOWebSocketHandler handler, String path, WORequest initialRequest ) {
+		this( handler, path, initialRequest != null ? new WOWebSocketHandshakeRequest( initialRequest ) : null );
 	}
 
 	@Override
-	public void onWebSocketClose( int statusCode, String reason ) {
-		try {
-			_handler.onClose( _woWebSocketSession, statusCode, reason );
-		}
-		catch( Exception e ) {
-			logger.error( "Error in WebSocket onClose handler", e );
-		}
+	public void onWebSocketText( String message ) {
+		dispatch( () -> {
+			try {
+				_handler.onTextMessage( _woWebSocketSession, message );
+			}
+			catch( Exception e ) {
+				logger.error( "Error in WebSocket onTextMessage handler", e );
+				_handler.onError( _woWebSocketSession, e );
+			}
+
+			// Demand more data for the next message
+			demand();
+		} );
 	}
 
 	@Override
-	public void onWebSocketError( Throwable cause ) {
-		try {
-			_handler.onError( _woWebSocketSession, cause );
-		}
-		catch( Exception e ) {
-			logger.error( "Error in WebSocket onError handler", e );
-		}
+	public void onWebSocketBinary( ByteBuffer payload, Callback callback ) {
+		dispatch( () -> {
+			try {
+				_handler.onBinaryMessage( _woWebSocketSession, payload );
+				callback.succeed();
+			}
+			catch( Exception e ) {
+				logger.error( "Error in WebSocket onBinaryMessage handler", e );
+				_handler.onError( _woWebSocketSession, e );
+				callback.fail( e );
+			}
+
+			// Demand more data for the next message
+			demand();
+		} );
 	}
-}
\ No newline at end of file
+}
@@ -2,10 +2,15 @@ package com.webobjects.appserver.websocket;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
 
 import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.core.OpCode;
 
 /**
  * Wraps a Jetty WebSocket Session for our use
@@ -18,13 +23,55 @@ public class WOJettyWebSocketSession implements WOWebSocketSession {
 	 */
 	private final Session _jettySession;
 
+	/**
+	 * Outgoing messages waiting to be written
+	 */
+	private final WOWebSocketSendQueue _sendQueue;
+
 	/**
 	 * FIXME: We should really have a session object, or some other typed info associated with the session, rather than a simple Map // Hugi 2025-11-13
 	 */
 	private final Map<String, Object> _attributes = new ConcurrentHashMap<>();
 
+	/**
+	 * The session's heartbeat, if started
+	 */
+	private volatile ScheduledFuture<?> _heartbeat;
+
+	/**
+	 * Time (System.nanoTime()) of the last pong received from the client
+	 */
+	private volatile long _lastPongNanos = System.nanoTime();
+
+	/**
+	 * Names of the topics this session is subscribed to. See WOWebSocketTopics
+	 */
+	private final Set<String> _topics = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * The endpoint path the session connected to
+	 */
+	private final String _path;
+
+	/**
+	 * The WO session ID of the upgrade request, if any
+	 */
+	private final String _woSessionID;
+
+	/**
+	 * Key assigned by the application. See WOWebSocketSessions.setKey()
+	 */
+	private volatile String _key;
+
 	public WOJettyWebSocketSession( Session jettySession ) {
+		this( jettySession, null, null );
+	}
+
+	public WOJettyWebSocketSession( Session jettySession, String path, String woSessionID ) {
 		_jettySession = jettySession;
+		_sendQueue = new WOWebSocketSendQueue( jettySession );
+		_path = path;
+		_woSessionID = woSessionID;
 	}
 
 	@Override
@@ -39,7 +86,7 @@ public class WOJettyWebSocketSession implements WOWebSocketSession {
 			throw new IOException( "WebSocket session is not open" );
 		}
 
-		_jettySession.sendText( message, null );
+		_sendQueue.send( OpCode.TEXT, encode( message ), null );
 	}
 
 	@Override
@@ -49,7 +96,41 @@ public class WOJettyWebSocketSession implements WOWebSocketSession {
 			throw new IOException( "WebSocket session is not open" );
 		}
 
-		_jettySession.sendBinary( data, null );
+		_sendQueue.send( OpCode.BINARY, data, null );
+	}
+
+	@Override
+	public CompletableFuture<Void> sendTextAsync( String message ) {
+		return sendAsync( OpCode.TEXT, encode( message ) );
+	}
+
+	@Override
+	public CompletableFuture<Void> sendBinaryAsync( ByteBuffer data ) {
+		return sendAsync( OpCode.BINARY, data );
+	}
+
+	private CompletableFuture<Void> sendAsync( final byte opCode, final ByteBuffer payload ) {
+		final CompletableFuture<Void> future = new CompletableFuture<>();
+
+		if( !isOpen() ) {
+			future.completeExceptionally( new IOException( "WebSocket session is not open" ) );
+		}
+		else {
+			_sendQueue.send( opCode, payload, future );
+		}
+
+		return future;
+	}
+
+	private static ByteBuffer encode( final String message ) {
+		return ByteBuffer.wrap( message.getBytes( StandardCharsets.UTF_8 ) );
+	}
+
+	/**
+	 * @return Number of bytes waiting to be sent to the client (including the message being written). See WOWebSocketSendQueue for what happens when a client isn't keeping up.
+	 */
+	public long queuedBytes() {
+		return _sendQueue.queuedBytes();
 	}
 
 	@Override
@@ -91,6 +172,81 @@ public class WOJettyWebSocketSession implements WOWebSocketSession {
 		_attributes.remove( key );
 	}
 
+	/**
+	 * Send a message whose payload has already been encoded (UTF-8 bytes for text), without blocking.
+	 * The payload is sliced, so the same buffer can be passed to any number of sessions (see WOWebSocketTopics).
+	 */
+	void sendEncoded( final byte opCode, final ByteBuffer payload ) {
+		_sendQueue.send( opCode, payload.slice(), null );
+	}
+
+	/**
+	 * @return The endpoint path the session connected to
+	 */
+	String path() {
+		return _path;
+	}
+
+	/**
+	 * @return The WO session ID of the upgrade request, if any
+	 */
+	String woSessionID() {
+		return _woSessionID;
+	}
+
+	/**
+	 * @return The key assigned by the application, if any
+	 */
+	String key() {
+		return _key;
+	}
+
+	void setKey( final String key ) {
+		_key = key;
+	}
+
+	/**
+	 * @return Names of the topics this session is subscribed to
+	 */
+	Set<String> topics() {
+		return _topics;
+	}
+
+	/**
+	 * Start sending pings to the client every intervalSeconds. If the client doesn't answer with a pong within pongTimeoutSeconds, it's considered dead and gets disconnected.
+	 * Replaces any heartbeat previously started for this session.
+	 */
+	void startHeartbeat( int intervalSeconds, int pongTimeoutSeconds ) {
+		stopHeartbeat();
+		_heartbeat = WOWebSocketHeartbeat.start( this, intervalSeconds, pongTimeoutSeconds );
+	}
+
+	/**
+	 * Stop the session's heartbeat, if running
+	 */
+	void stopHeartbeat() {
+		final ScheduledFuture<?> heartbeat = _heartbeat;
+
+		if( heartbeat != null ) {
+			heartbeat.cancel( false );
+			_heartbeat = null;
+		}
+	}
+
+	/**
+	 * Invoked by the listener when a pong is received from the client
+	 */
+	void pongReceived() {
+		_lastPongNanos = System.nanoTime();
+	}
+
+	/**
+	 * @return Time (System.nanoTime()) of the last pong received from the client
+	 */
+	long lastPongNanos() {
+		return _lastPongNanos;
+	}
+
 	/**
 	 * @return the underlying Jetty session
 	 */
@@ -0,0 +1,113 @@
+package com.webobjects.appserver.websocket;
+
+import java.nio.ByteBuffer;
+
+import org.eclipse.jetty.websocket.api.Callback;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.webobjects.appserver.WORequest;
+
+import er.extensions.foundation.ERXProperties;
+
+/**
+ * Jetty WebSocket listener that delegates to a WOWebSocketStreamingHandler, one fragment at a time.
+ *
+ * Since this class overrides Jetty's partial message methods, Jetty hands us each frame's payload as it arrives, rather than assembling whole messages.
+ * A message exceeding MAX_STREAMED_MESSAGE_SIZE closes the connection with status 1009 (message too large).
+ */
+
+public class WOJettyWebSocketStreamingListener extends WOJettyWebSocketBaseListener {
+
+	private static final Logger logger = LoggerFactory.getLogger( WOJettyWebSocketStreamingListener.class );
+
+	/**
+	 * Maximum size of a streamed message, in bytes for binary messages and characters for text messages. 0 for no limit.
+	 */
+	private static final long MAX_STREAMED_MESSAGE_SIZE = ERXProperties.longForKeyWithDefault( "JettyWebSocketMaxStreamedMessageSize", 0 );
+
+	private final WOWebSocketStreamingHandler _streamingHandler;
+
+	/**
+	 * Size of the message being received so far. Only touched by Jetty's callbacks, which don't overlap since we demand one frame at a time.
+	 */
+	private long _messageSize;
+
+	public WOJettyWebSocketStreamingListener( WOWebSocketStreamingHandler handler, String path, WOWebSocketHandshakeRequest handshakeRequest ) {
+		super( handler, path, handshakeRequest );
+		_streamingHandler = handler;
+	}
+
+	/**
+	 * Listeners are now created with a WOWebSocketHandshakeRequest. Kept so existing code creating listeners still compiles.
+	 */
+	@Deprecated
+	public WOJettyWebSocketStreamingListener( WOWebSocketStreamingHandler handler, String path, WORequest initialRequest ) {
+		this( handler, path, initialRequest != null ? new WOWebSocketHandshakeRequest( initialRequest ) : null );
+	}
+
+	@Override
+	public void onWebSocketPartialText( String payload, boolean last ) {
+		if( !acceptFragment( payload.length(), last ) ) {
+			return;
+		}
+
+		dispatch( () -> {
+			try {
+				_streamingHandler.onTextFragment( _woWebSocketSession, payload, last );
+			}
+			catch( Exception e ) {
+				logger.error( "Error in WebSocket onTextFragment handler", e );
+				_handler.onError( _woWebSocketSession, e );
+			}
+
+			// Demand the next fragment
+			demand();
+		} );
+	}
+
+	@Override
+	public void onWebSocketPartialBinary( ByteBuffer payload, boolean last, Callback callback ) {
+		if( !acceptFragment( payload.remaining(), last ) ) {
+			callback.succeed();
+			return;
+		}
+
+		dispatch( () -> {
+			try {
+				_streamingHandler.onBinaryFragment( _woWebSocketSession, payload, last );
+				callback.succeed();
+			}
+			catch( Exception e ) {
+				logger.error( "Error in WebSocket onBinaryFragment handler", e );
+				_handler.onError( _woWebSocketSession, e );
+				callback.fail( e );
+			}
+
+			// Demand the next fragment
+			demand();
+		} );
+	}
+
+	/**
+	 * Add a fragment to the size of the current message, closing the connection if the message has become too large
+	 *
+	 * @return false if the fragment was rejected
+	 */
+	private boolean acceptFragment( final long fragmentSize, final boolean last ) {
+		_messageSize += fragmentSize;
+
+		if( MAX_STREAMED_MESSAGE_SIZE > 0 && _messageSize > MAX_STREAMED_MESSAGE_SIZE ) {
+			logger.warn( "Closing WebSocket %s, streamed message exceeds %s".formatted( _woWebSocketSession.getRemoteAddress(), MAX_STREAMED_MESSAGE_SIZE ) );
+			_woWebSocketSession.jettySession().close( StatusCode.MESSAGE_TOO_LARGE, "Message too large", Callback.NOOP );
+			return false;
+		}
+
+		if( last ) {
+			_messageSize = 0;
+		}
+
+		return true;
+	}
+}
@@ -1,12 +1,17 @@
 package com.webobjects.appserver.websocket;
 
 import java.time.Duration;
+import java.util.zip.Deflater;
 
 import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Response;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.compression.CompressionPool;
+import org.eclipse.jetty.util.compression.DeflaterPool;
+import org.eclipse.jetty.websocket.core.WebSocketExtensionRegistry;
+import org.eclipse.jetty.websocket.core.server.WebSocketServerComponents;
 import org.eclipse.jetty.websocket.server.ServerUpgradeRequest;
 import org.eclipse.jetty.websocket.server.ServerUpgradeResponse;
 import org.eclipse.jetty.websocket.server.ServerWebSocketContainer;
@@ -30,17 +35,50 @@ public class WOJettyWebSocketSupport {
 	 */
 	private static final int WEBSOCKET_IDLE_TIMEOUT_SECONDS = ERXProperties.intForKeyWithDefault( "JettyWebSocketIdleTimeout", 0 );
 
+	/**
+	 * Negotiate permessage-deflate compression with clients that offer it
+	 */
+	private static final boolean COMPRESSION_ENABLED = ERXProperties.booleanForKeyWithDefault( "JettyWebSocketCompression", true );
+
+	/**
+	 * Deflate compression level (1-9), -1 for the JDK's default
+	 */
+	private static final int COMPRESSION_LEVEL = ERXProperties.intForKeyWithDefault( "JettyWebSocketCompressionLevel", Deflater.DEFAULT_COMPRESSION );
+
 	/**
 	 * Creates a handler that supports both HTTP and WebSocket requests.
 	 * WebSocket upgrade requests are intercepted by the WebSocket infrastructure, other requests go through to the WO handler.
 	 */
 	public static Handler createWebSocketHandler( final Server server, final Handler otherHandler ) {
 
+		// WebSockets get their own deflater pool, at their own compression level. Must be in place before the WebSocket components get created.
+		server.setAttribute( WebSocketServerComponents.WEBSOCKET_DEFLATER_POOL_ATTRIBUTE, new DeflaterPool( CompressionPool.DEFAULT_CAPACITY, COMPRESSION_LEVEL, true ) );
+
 		// Get the WebSocket container from the server
 		final ServerWebSocketContainer container = ServerWebSocketContainer.ensure( server );
 
+		final WebSocketExtensionRegistry extensionRegistry = WebSocketServerComponents.getWebSocketComponents( server ).getExtensionRegistry();
+
+		if( COMPRESSION_ENABLED ) {
+			// Our subclass of Jetty's (internal) extension is only swapped in if it's settings are used, or metrics need it's byte counters
+			if( WOJettyWebSocketDeflateExtension.isRequired() ) {
+				extensionRegistry.register( "permessage-deflate", WOJettyWebSocketDeflateExtension.class );
+			}
+
+			logger.info( "WebSocket compression enabled, level %s".formatted( COMPRESSION_LEVEL ) );
+		}
+		else {
+			extensionRegistry.unregister( "permessage-deflate" );
+		}
+
 		container.setIdleTimeout( Duration.ofSeconds( WEBSOCKET_IDLE_TIMEOUT_SECONDS ) );
-		logger.info( "WebSocket idle timeout set to {} seconds (0 = infinite)", WEBSOCKET_IDLE_TIMEOUT_SECONDS );
+		logger.info( "WebSocket idle timeout set to %s seconds (0 = infinite)".formatted( WEBSOCKET_IDLE_TIMEOUT_SECONDS ) );
+
+		// Maximum sizes of whole messages (which Jetty assembles in memory) and of single frames. Jetty's defaults unless set.
+		container.setMaxTextMessageSize( ERXProperties.longForKeyWithDefault( "JettyWebSocketMaxTextMessageSize", container.getMaxTextMessageSize() ) );
+		container.setMaxBinaryMessageSize( ERXProperties.longForKeyWithDefault( "JettyWebSocketMaxBinaryMessageSize", container.getMaxBinaryMessageSize() ) );
+		container.setMaxFrameSize( ERXProperties.longForKeyWithDefault( "JettyWebSocketMaxFrameSize", container.getMaxFrameSize() ) );
+		logger.info( "WebSocket maximum text message size %s, binary message size %s, frame size %s".formatted( container.getMaxTextMessageSize(), container.getMaxBinaryMessageSize(), container.getMaxFrameSize() ) );
 
 		// Create an upgrade handler that intercepts WebSocket upgrade requests
 		return new WebSocketUpgradeHandler( container ) {
@@ -52,20 +90,25 @@ public class WOJettyWebSocketSupport {
 
 				if( WOWebSocketRegistry.hasHandlerForPath( path ) && isWebSocketUpgrade( request ) ) {
 					// Let the WebSocket infrastructure handle the upgrade
-					logger.debug( "WebSocket upgrade request for path: {}", path );
+					logger.debug( "WebSocket upgrade request for path: %s".formatted( path ) );
 
 					// Create a handler instance for this connection
 					final WOWebSocketHandler handler = WOWebSocketRegistry.createHandlerInstance( path, WOApplication.application() );
 
 					if( handler != null ) {
-						// Convert the Jetty request to a WORequest so we can pass it to the handler
-						final WORequest woRequest = WOAdaptorJetty.WOJettyHandler.requestToWORequest( request );
+						// A full WORequest is expensive to create (and retain) so we only do it for handlers that want one
+						final WORequest woRequest = handler.requiresWORequest() ? WOAdaptorJetty.WOJettyHandler.requestToWORequest( request ) : null;
+						final WOWebSocketHandshakeRequest handshakeRequest = new WOWebSocketHandshakeRequest( request, woRequest );
 
 						// Create the WebSocket creator that returns our listener
 						final WebSocketCreator creator = new WebSocketCreator() {
 							@Override
 							public Object createWebSocket( ServerUpgradeRequest req, ServerUpgradeResponse resp, Callback cb ) {
-								return new WOJettyWebSocketListener( handler, woRequest );
+								if( handler instanceof WOWebSocketStreamingHandler streamingHandler ) {
+									return new WOJettyWebSocketStreamingListener( streamingHandler, path, handshakeRequest );
+								}
+
+								return new WOJettyWebSocketListener( handler, path, handshakeRequest );
 							}
 						};
 
@@ -0,0 +1,94 @@
+package com.webobjects.appserver.websocket;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.util.thread.SerializedExecutor;
+
+import er.extensions.foundation.ERXProperties;
+
+/**
+ * Decides which thread runs WebSocket handler callbacks.
+ *
+ * By default callbacks run inline, on the Jetty thread that read the frame, so a handler that blocks (e.g. on a database) holds up that thread.
+ * With dispatch set to "virtual" or "pool" (or an executor set through WOWebSocketRegistry.setDispatchExecutor()) callbacks run on that executor instead.
+ * Each session's callbacks are serialized, so they run one at a time, in the order they arrived. The listener only demands the next frame once the handler is done with the previous one, so a slow handler slows down reading from it's socket, rather than piling up messages.
+ */
+
+class WOWebSocketDispatch {
+
+	/**
+	 * Where handler callbacks run
+	 */
+	enum Mode {
+
+		/**
+		 * On the Jetty thread that read the frame
+		 */
+		INLINE,
+
+		/**
+		 * On a new virtual thread per callback
+		 */
+		VIRTUAL,
+
+		/**
+		 * On a fixed pool of JettyWebSocketDispatchThreads platform threads
+		 */
+		POOL
+	}
+
+	/**
+	 * Where handler callbacks run. One of inline, virtual or pool.
+	 */
+	private static final Mode MODE = Mode.valueOf( ERXProperties.stringForKeyWithDefault( "JettyWebSocketDispatch", "inline" ).toUpperCase() );
+
+	/**
+	 * Number of threads when dispatching to a pool
+	 */
+	private static final int POOL_THREADS = ERXProperties.intForKeyWithDefault( "JettyWebSocketDispatchThreads", 16 );
+
+	/**
+	 * The executor handler callbacks run on. Null to run them inline.
+	 */
+	private static volatile Executor executor = createExecutor();
+
+	private static Executor createExecutor() {
+		return switch( MODE ) {
+			case INLINE -> null;
+			case VIRTUAL -> Executors.newThreadPerTaskExecutor( Thread.ofVirtual().name( "WebSocket-Dispatch-", 0 ).factory() );
+			case POOL -> newPool( POOL_THREADS );
+		};
+	}
+
+	private static ExecutorService newPool( final int threads ) {
+		final AtomicInteger threadNumber = new AtomicInteger();
+
+		final ThreadFactory threadFactory = r -> {
+			final Thread t = new Thread( r );
+			t.setDaemon( true ); // Daemon threads won't prevent JVM shutdown
+			t.setName( "WebSocket-Dispatch-" + threadNumber.getAndIncrement() );
+			return t;
+		};
+
+		return Executors.newFixedThreadPool( threads, threadFactory );
+	}
+
+	/**
+	 * Set the executor handler callbacks run on, replacing the one configured by properties. Null to run them inline. Applies to sessions opened afterwards.
+	 */
+	static void setExecutor( final Executor newExecutor ) {
+		executor = newExecutor;
+	}
+
+	/**
+	 * @return An executor that runs a single session's callbacks one at a time, in order. Null if callbacks run inline.
+	 */
+	static Executor sessionExecutor() {
+		final Executor current = executor;
+		return current != null ? new SerializedExecutor( current ) : null;
+	}
+}
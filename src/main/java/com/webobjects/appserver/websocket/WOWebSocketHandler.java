@@ -1,11 +1,6 @@
 package com.webobjects.appserver.websocket;
 
-import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,7 +17,7 @@ import com.webobjects.appserver.WORequest;
  * public class ChatHandler extends WOWebSocketHandler {
  *     {@literal @}Override
  *     public void onConnect(WOWebSocketSession session) {
- *         logger.info("Client connected: {}", session.getRemoteAddress());
+ *         logger.info("Client connected: %s".formatted(session.getRemoteAddress()));
  *     }
  *
  *     {@literal @}Override
@@ -44,6 +39,21 @@ public abstract class WOWebSocketHandler {
 	 */
 	private final Logger logger = LoggerFactory.getLogger( getClass() );
 
+	/**
+	 * Handler classes that override onConnect( WOWebSocketSession, WORequest ), and so need a WORequest created for each connection
+	 */
+	private static final ClassValue<Boolean> overridesWORequestOnConnect = new ClassValue<>() {
+		@Override
+		protected Boolean computeValue( Class<?> handlerClass ) {
+			try {
+				return handlerClass.getMethod( "onConnect", WOWebSocketSession.class, WORequest.class ).getDeclaringClass() != WOWebSocketHandler.class;
+			}
+			catch( NoSuchMethodException e ) {
+				throw new IllegalStateException( e ); // Can't happen, the method is declared here
+			}
+		}
+	};
+
 	/**
 	 * The WOApplication instance that this handler is associated with
 	 */
@@ -52,12 +62,33 @@ public abstract class WOWebSocketHandler {
 	/**
 	 * Called when a new WebSocket connection is established.
 	 * Override this to perform initialization when a client connects.
+	 * The request is released once this method returns, so keep anything you need from it on the session.
+	 *
+	 * The default implementation invokes onConnect( session, request.woRequest() ).
+	 *
+	 * @param session the WebSocket session for this connection
+	 * @param request the HTTP request that initiated the WebSocket upgrade
+	 */
+	public void onConnect( WOWebSocketSession session, WOWebSocketHandshakeRequest request ) {
+		onConnect( session, request != null ? request.woRequest() : null );
+	}
+
+	/**
+	 * Called when a new WebSocket connection is established, with the upgrade request as a full WORequest.
+	 * Overriding this makes the adaptor create a WORequest for each connection. If you don't need one, override onConnect( WOWebSocketSession, WOWebSocketHandshakeRequest ) instead.
 	 *
 	 * @param session the WebSocket session for this connection
 	 * @param request the initial HTTP request that initiated the WebSocket upgrade
 	 */
 	public void onConnect( WOWebSocketSession session, WORequest request ) {}
 
+	/**
+	 * @return true if the adaptor should create a full WORequest for each connection, available from WOWebSocketHandshakeRequest.woRequest(). By default only if the handler overrides onConnect( WOWebSocketSession, WORequest ).
+	 */
+	public boolean requiresWORequest() {
+		return overridesWORequestOnConnect.get( getClass() );
+	}
+
 	/**
 	 * Called when a text message is received from the client.
 	 *
@@ -111,61 +142,41 @@ public abstract class WOWebSocketHandler {
 
 	// ========== Heartbeat Support ==========
 
-	private static final String HEARTBEAT_EXECUTOR_KEY = "_heartbeat_executor";
-	private static final String HEARTBEAT_FUTURE_KEY = "_heartbeat_future";
-
 	/**
-	 * Start a heartbeat that sends periodic ping messages to keep the connection alive.
+	 * Start a heartbeat that sends periodic WebSocket ping frames to keep the connection alive.
+	 * If the client doesn't answer a ping with a pong before the next one is due, the connection is considered dead and gets disconnected.
 	 * The heartbeat will automatically stop when the connection closes.
 	 *
 	 * @param session the WebSocket session
-	 * @param intervalSeconds interval between heartbeat messages in seconds
+	 * @param intervalSeconds interval between pings in seconds
 	 */
 	protected void startHeartbeat( WOWebSocketSession session, int intervalSeconds ) {
-		startHeartbeat( session, intervalSeconds, "ping" );
+		startHeartbeat( session, intervalSeconds, intervalSeconds );
 	}
 
 	/**
-	 * Start a heartbeat that sends periodic messages to keep the connection alive.
+	 * Start a heartbeat that sends periodic WebSocket ping frames to keep the connection alive.
 	 * The heartbeat will automatically stop when the connection closes.
 	 *
 	 * @param session the WebSocket session
-	 * @param intervalSeconds interval between heartbeat messages in seconds
-	 * @param message the message to send (default: "ping")
+	 * @param intervalSeconds interval between pings in seconds
+	 * @param pongTimeoutSeconds how long to wait for a missing pong (in addition to the interval) before disconnecting the client
 	 */
-	protected void startHeartbeat( WOWebSocketSession session, int intervalSeconds, String message ) {
-
-		// Create a single-threaded executor for this session's heartbeat
-		final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor( r -> {
-			Thread t = new Thread( r );
-			t.setDaemon( true ); // Daemon thread won't prevent JVM shutdown
-			t.setName( "WebSocket-Heartbeat-" + session.getRemoteAddress() );
-			return t;
-		} );
-
-		// Schedule the heartbeat
-		final ScheduledFuture<?> future = executor.scheduleAtFixedRate( () -> {
-			if( session.isOpen() ) {
-				try {
-					session.sendText( message );
-					logger.debug( "Sent heartbeat to {}", session.getRemoteAddress() );
-				}
-				catch( IOException e ) {
-					logger.warn( "Heartbeat failed for {}, connection likely dead", session.getRemoteAddress() );
-					stopHeartbeat( session );
-				}
-			}
-			else {
-				logger.debug( "Session closed, stopping heartbeat for {}", session.getRemoteAddress() );
-				stopHeartbeat( session );
-			}
-		}, intervalSeconds, intervalSeconds, TimeUnit.SECONDS );
-
-		// Store executor and future so we can clean up later
-		session.setAttribute( HEARTBEAT_EXECUTOR_KEY, executor );
-		session.setAttribute( HEARTBEAT_FUTURE_KEY, future );
+	protected void startHeartbeat( WOWebSocketSession session, int intervalSeconds, int pongTimeoutSeconds ) {
+		jettySession( session ).startHeartbeat( intervalSeconds, pongTimeoutSeconds );
+		logger.info( "Started heartbeat for %s (interval: %ss, pong timeout: %ss)".formatted( session.getRemoteAddress(), intervalSeconds, pongTimeoutSeconds ) );
+	}
 
-		logger.info( "Started heartbeat for {} (interval: {}s, message: '{}')", session.getRemoteAddress(), intervalSeconds, message );
+	/**
+	 * Heartbeats used to be text messages. They're now WebSocket ping frames, which carry no message, so the message is ignored. Kept so existing handlers still compile.
+	 *
+	 * @param session the WebSocket session
+	 * @param intervalSeconds interval between pings in seconds
+	 * @param message ignored
+	 */
+	@Deprecated
+	protected void startHeartbeat( WOWebSocketSession session, int intervalSeconds, String message ) {
+		startHeartbeat( session, intervalSeconds );
 	}
 
 	/**
@@ -173,31 +184,28 @@ public abstract class WOWebSocketHandler {
 	 * Automatically invoked when the connection closes (but can be called manually if required)
 	 */
 	protected void stopHeartbeat( WOWebSocketSession session ) {
-		final ScheduledFuture<?> future = (ScheduledFuture<?>)session.getAttribute( HEARTBEAT_FUTURE_KEY );
-
-		if( future != null ) {
-			future.cancel( false );
-			session.removeAttribute( HEARTBEAT_FUTURE_KEY );
-		}
-
-		final ScheduledExecutorService executor = (ScheduledExecutorService)session.getAttribute( HEARTBEAT_EXECUTOR_KEY );
-
-		if( executor != null ) {
-			executor.shutdown();
-			session.removeAttribute( HEARTBEAT_EXECUTOR_KEY );
-			logger.debug( "Stopped heartbeat for {}", session.getRemoteAddress() );
-		}
+		jettySession( session ).stopHeartbeat();
+		logger.debug( "Stopped heartbeat for %s".formatted( session.getRemoteAddress() ) );
 	}
 
 	/**
-	 * Called when a text message is received. Override this to handle heartbeat responses
-	 * or filter out heartbeat messages before processing.
+	 * Heartbeats are now sent as WebSocket ping/pong control frames, which never reach onTextMessage(). Kept so existing handlers still compile.
 	 *
 	 * @param session the WebSocket session
 	 * @param message the message received
 	 * @return true if this was a heartbeat message (and should not be processed further)
 	 */
+	@Deprecated
 	protected boolean isHeartbeatMessage( WOWebSocketSession session, String message ) {
 		return "ping".equals( message ) || "pong".equals( message );
 	}
-}
\ No newline at end of file
+
+	private static WOJettyWebSocketSession jettySession( WOWebSocketSession session ) {
+
+		if( session instanceof WOJettyWebSocketSession jettySession ) {
+			return jettySession;
+		}
+
+		throw new IllegalArgumentException( "Heartbeats are only supported for sessions created by the Jetty adaptor, got " + session.getClass().getName() );
+	}
+}
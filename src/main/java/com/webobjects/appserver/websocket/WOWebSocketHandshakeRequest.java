@@ -0,0 +1,253 @@
+package com.webobjects.appserver.websocket;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.util.Fields;
+import org.eclipse.jetty.util.UrlEncoded;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.webobjects.appserver.WORequest;
+
+/**
+ * The HTTP request that opened a WebSocket connection.
+ *
+ * A lightweight alternative to WORequest, holding on to the request's (immutable) URI and headers. Cookies and query parameters are only parsed if asked for.
+ * It's passed to WOWebSocketHandler.onConnect() and released by the adaptor afterwards, so keep anything you need from it (e.g. a user ID) on the session.
+ * A full WORequest is only created for handlers that ask for it, see WOWebSocketHandler.requiresWORequest().
+ */
+
+public class WOWebSocketHandshakeRequest {
+
+	private static final Logger logger = LoggerFactory.getLogger( WOWebSocketHandshakeRequest.class );
+
+	private static final String SESSION_ID_KEY = "wosid";
+
+	private final String _path;
+	private final String _query;
+	private final HttpFields _headers;
+	private final String _remoteAddress;
+	private final WORequest _woRequest;
+
+	/**
+	 * Cookies by name, parsed on first access
+	 */
+	private Map<String, String> _cookies;
+
+	/**
+	 * Query parameters, parsed on first access
+	 */
+	private Fields _queryParameters;
+
+	WOWebSocketHandshakeRequest( final Request request, final WORequest woRequest ) {
+		_path = request.getHttpURI().getPath();
+		_query = request.getHttpURI().getQuery();
+		_headers = request.getHeaders().asImmutable();
+		_remoteAddress = Request.getRemoteAddr( request );
+		_woRequest = woRequest;
+	}
+
+	/**
+	 * A handshake request built from a WORequest, for listeners created the way they were before handshake requests existed
+	 */
+	WOWebSocketHandshakeRequest( final WORequest woRequest ) {
+		final String uri = woRequest.uri();
+		final int queryIndex = uri.indexOf( '?' );
+		_path = queryIndex == -1 ? uri : uri.substring( 0, queryIndex );
+		_query = queryIndex == -1 ? null : uri.substring( queryIndex + 1 );
+
+		final HttpFields.Mutable headers = HttpFields.build();
+		woRequest.headers().forEach( ( name, values ) -> values.forEach( value -> headers.add( name, value ) ) );
+		_headers = headers.asImmutable();
+
+		_remoteAddress = woRequest._originatingAddress() != null ? woRequest._originatingAddress().getHostAddress() : null;
+		_woRequest = woRequest;
+	}
+
+	/**
+	 * @return The request's path
+	 */
+	public String path() {
+		return _path;
+	}
+
+	/**
+	 * @return The request's query string (undecoded) or null if it doesn't have one
+	 */
+	public String queryString() {
+		return _query;
+	}
+
+	/**
+	 * @return The first value of the given header (case insensitive), or null if the request doesn't have it
+	 */
+	public String headerForKey( final String name ) {
+		return _headers.get( name );
+	}
+
+	/**
+	 * @return All values of the given header (case insensitive)
+	 */
+	public List<String> headersForKey( final String name ) {
+		return _headers.getValuesList( name );
+	}
+
+	/**
+	 * @return The value of the given cookie, or null if the request doesn't have it
+	 */
+	public String cookieValueForKey( final String name ) {
+		if( _cookies == null ) {
+			_cookies = parseCookies( _headers.getValuesList( HttpHeader.COOKIE ) );
+		}
+
+		return _cookies.get( name );
+	}
+
+	/**
+	 * @return The first value of the given query parameter, or null if the request doesn't have it
+	 */
+	public String formValueForKey( final String name ) {
+		return queryParameters().getValue( name );
+	}
+
+	/**
+	 * @return All values of the given query parameter
+	 */
+	public List<String> formValuesForKey( final String name ) {
+		return queryParameters().getValuesOrEmpty( name );
+	}
+
+	/**
+	 * @return The WO session ID (wosid) from the query string or cookies, or null if the request doesn't carry one (or carries a malformed one)
+	 *
+	 * Invoked for every connection, so unless the query string or cookies have already been parsed, we only look for wosid rather than parsing all of them.
+	 */
+	public String sessionID() {
+		String sessionID;
+
+		try {
+			sessionID = _queryParameters != null ? _queryParameters.getValue( SESSION_ID_KEY ) : queryValue( _query, SESSION_ID_KEY );
+		}
+		catch( IllegalArgumentException e ) {
+			logger.debug( "Ignoring malformed %s in query string of %s".formatted( SESSION_ID_KEY, _path ), e );
+			sessionID = null;
+		}
+
+		if( sessionID == null ) {
+			sessionID = _cookies != null ? _cookies.get( SESSION_ID_KEY ) : cookieValue( _headers.getValuesList( HttpHeader.COOKIE ), SESSION_ID_KEY );
+		}
+
+		return sessionID;
+	}
+
+	/**
+	 * @return The client's IP address
+	 */
+	public String remoteAddress() {
+		return _remoteAddress;
+	}
+
+	/**
+	 * @return The request as a full WORequest, or null if the handler didn't ask for one (see WOWebSocketHandler.requiresWORequest())
+	 */
+	public WORequest woRequest() {
+		return _woRequest;
+	}
+
+	private Fields queryParameters() {
+		if( _queryParameters == null ) {
+			_queryParameters = new Fields( true );
+
+			if( _query != null ) {
+				UrlEncoded.decodeUtf8To( _query, _queryParameters );
+			}
+		}
+
+		return _queryParameters;
+	}
+
+	/**
+	 * @return The first (decoded) value of the named parameter in the given query string, null if it's not there. Parameter names are compared undecoded.
+	 * @throws IllegalArgumentException if the value is not properly encoded
+	 */
+	private static String queryValue( final String query, final String name ) {
+
+		if( query == null ) {
+			return null;
+		}
+
+		int start = 0;
+
+		while( start < query.length() ) {
+			int end = query.indexOf( '&', start );
+
+			if( end == -1 ) {
+				end = query.length();
+			}
+
+			if( query.startsWith( name, start ) && start + name.length() < end && query.charAt( start + name.length() ) == '=' ) {
+				final int valueStart = start + name.length() + 1;
+				return UrlEncoded.decodeString( query, valueStart, end - valueStart, StandardCharsets.UTF_8 );
+			}
+
+			start = end + 1;
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return The value of the named cookie in the given cookie header values, null if it's not there. Same rules as parseCookies(), for a single cookie.
+	 */
+	private static String cookieValue( final List<String> headerValues, final String name ) {
+
+		for( final String headerValue : headerValues ) {
+			for( final String pair : headerValue.split( ";" ) ) {
+				final int equals = pair.indexOf( '=' );
+
+				if( equals > 0 && name.equals( pair.substring( 0, equals ).trim() ) ) {
+					return unquote( pair.substring( equals + 1 ).trim() );
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return Cookies from the given cookie header values. If a cookie appears more than once, the first occurrence wins, as it's the most specific one.
+	 */
+	private static Map<String, String> parseCookies( final List<String> headerValues ) {
+		final Map<String, String> cookies = new HashMap<>();
+
+		for( final String headerValue : headerValues ) {
+			for( final String pair : headerValue.split( ";" ) ) {
+				final int equals = pair.indexOf( '=' );
+
+				if( equals > 0 ) {
+					cookies.putIfAbsent( pair.substring( 0, equals ).trim(), unquote( pair.substring( equals + 1 ).trim() ) );
+				}
+			}
+		}
+
+		return cookies;
+	}
+
+	/**
+	 * @return The given cookie value, without surrounding quotes if it has them
+	 */
+	private static String unquote( final String value ) {
+
+		if( value.length() >= 2 && value.startsWith( "\"" ) && value.endsWith( "\"" ) ) {
+			return value.substring( 1, value.length() - 1 );
+		}
+
+		return value;
+	}
+}
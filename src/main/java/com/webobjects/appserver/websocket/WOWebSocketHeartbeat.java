@@ -0,0 +1,80 @@
+package com.webobjects.appserver.websocket;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.websocket.api.Callback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends periodic WebSocket ping frames to keep connections alive and detect dead peers.
+ *
+ * All heartbeats are served by a single shared scheduler thread, regardless of the number of connected sessions.
+ * A session that hasn't answered with a pong within the timeout is considered dead and gets disconnected.
+ */
+
+class WOWebSocketHeartbeat {
+
+	private static final Logger logger = LoggerFactory.getLogger( WOWebSocketHeartbeat.class );
+
+	/**
+	 * The scheduler shared by all sessions' heartbeats. A heartbeat tick does very little work (a non-blocking ping send) so a single thread serves plenty of sessions.
+	 */
+	private static final ScheduledThreadPoolExecutor scheduler = createScheduler();
+
+	private static ScheduledThreadPoolExecutor createScheduler() {
+		final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor( 1, r -> {
+			final Thread t = new Thread( r );
+			t.setDaemon( true ); // Daemon thread won't prevent JVM shutdown
+			t.setName( "WebSocket-Heartbeat" );
+			return t;
+		} );
+
+		// Cancelled heartbeats (closed sessions) get removed from the queue immediately, rather than lingering until their next scheduled run
+		executor.setRemoveOnCancelPolicy( true );
+		return executor;
+	}
+
+	/**
+	 * Start sending pings to the given session.
+	 *
+	 * @param session the session to ping
+	 * @param intervalSeconds interval between pings in seconds
+	 * @param pongTimeoutSeconds how long after a missed pong we consider the peer dead
+	 * @return the scheduled heartbeat. Cancel to stop it.
+	 */
+	static ScheduledFuture<?> start( final WOJettyWebSocketSession session, final int intervalSeconds, final int pongTimeoutSeconds ) {
+
+		if( intervalSeconds <= 0 ) {
+			throw new IllegalArgumentException( "Heartbeat interval must be a positive number of seconds" );
+		}
+
+		// A responsive peer answers each ping well within the interval, so the last pong should never be older than the interval plus the timeout
+		final long maxPongAgeNanos = TimeUnit.SECONDS.toNanos( (long)intervalSeconds + pongTimeoutSeconds );
+
+		session.pongReceived(); // Start the clock for pong timeout now
+
+		return scheduler.scheduleAtFixedRate( () -> beat( session, maxPongAgeNanos ), intervalSeconds, intervalSeconds, TimeUnit.SECONDS );
+	}
+
+	private static void beat( final WOJettyWebSocketSession session, final long maxPongAgeNanos ) {
+
+		if( !session.isOpen() ) {
+			logger.debug( "Session closed, stopping heartbeat for %s".formatted( session.getRemoteAddress() ) );
+			session.stopHeartbeat();
+			return;
+		}
+
+		if( System.nanoTime() - session.lastPongNanos() > maxPongAgeNanos ) {
+			logger.warn( "No pong received from %s in time, connection is dead. Disconnecting".formatted( session.getRemoteAddress() ) );
+			session.stopHeartbeat();
+			session.jettySession().disconnect();
+			return;
+		}
+
+		session.jettySession().sendPing( BufferUtil.EMPTY_BUFFER, Callback.from( () -> {}, failure -> logger.debug( "Heartbeat ping failed for %s".formatted( session.getRemoteAddress() ), failure ) ) );
+	}
+}
@@ -1,7 +1,13 @@
 package com.webobjects.appserver.websocket;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,6 +27,12 @@ import com.webobjects.appserver.WOApplication;
  *     WOWebSocketRegistry.register("/ws/notifications", NotificationWebSocketHandler.class);
  * }
  * </pre>
+ *
+ * Registering a handler class creates a new handler instance for each connection. Stateless handlers can instead be registered as an instance, which is then shared by all connections to it's path:
+ *
+ * <pre>
+ * WOWebSocketRegistry.register("/ws/feed", new FeedWebSocketHandler());
+ * </pre>
  */
 
 public class WOWebSocketRegistry {
@@ -28,31 +40,88 @@ public class WOWebSocketRegistry {
 	private static final Logger logger = LoggerFactory.getLogger( WOWebSocketRegistry.class );
 
 	/**
-	 * Map of path patterns to handler classes
+	 * Map of path patterns to endpoints
 	 */
-	private static final Map<String, Class<? extends WOWebSocketHandler>> handlers = new ConcurrentHashMap<>();
+	private static final Map<String, Endpoint> handlers = new ConcurrentHashMap<>();
 
 	/**
-	 * Register a WebSocket handler for a specific path.
+	 * Register a WebSocket handler for a specific path. A new instance of the handler class is created for each connection.
 	 *
 	 * @param path the URL path (e.g., "/ws/chat")
-	 * @param handlerClass the handler class to instantiate for connections to this path
+	 * @param handlerClass the handler class to instantiate for connections to this path. Must have a no-argument constructor.
+	 * @throws IllegalArgumentException if the handler class can't be instantiated
 	 */
 	public static void register( String path, Class<? extends WOWebSocketHandler> handlerClass ) {
 
+		if( handlerClass == null ) {
+			throw new IllegalArgumentException( "Handler class cannot be null" );
+		}
+
+		final String normalizedPath = normalizePath( path );
+
+		logger.info( "Registering WebSocket handler %s for path %s".formatted( handlerClass.getSimpleName(), normalizedPath ) );
+		handlers.put( normalizedPath, new Endpoint( handlerClass, constructorHandle( handlerClass ), null ) );
+	}
+
+	/**
+	 * Register a shared WebSocket handler for a specific path. The given instance handles all connections to the path, so it must be stateless (or thread safe).
+	 *
+	 * @param path the URL path (e.g., "/ws/feed")
+	 * @param handler the handler instance to use for all connections to this path
+	 */
+	public static void register( String path, WOWebSocketHandler handler ) {
+
+		if( handler == null ) {
+			throw new IllegalArgumentException( "Handler cannot be null" );
+		}
+
+		final String normalizedPath = normalizePath( path );
+
+		logger.info( "Registering shared WebSocket handler %s for path %s".formatted( handler.getClass().getSimpleName(), normalizedPath ) );
+		handlers.put( normalizedPath, new Endpoint( handler.getClass(), null, handler ) );
+	}
+
+	/**
+	 * @return The given path, starting with a slash
+	 */
+	private static String normalizePath( String path ) {
+
 		if( path == null || path.isEmpty() ) {
 			throw new IllegalArgumentException( "WebSocket path cannot be null or empty" );
 		}
 
-		if( handlerClass == null ) {
-			throw new IllegalArgumentException( "Handler class cannot be null" );
+		return path.startsWith( "/" ) ? path : "/" + path;
+	}
+
+	/**
+	 * @return A handle for invoking the handler class' no-argument constructor. Looked up once at registration, so a handler class that can't be instantiated fails right away, rather than on every connection.
+	 */
+	private static MethodHandle constructorHandle( Class<? extends WOWebSocketHandler> handlerClass ) {
+
+		if( Modifier.isAbstract( handlerClass.getModifiers() ) ) {
+			throw new IllegalArgumentException( "WebSocket handler class %s is abstract".formatted( handlerClass.getName() ) );
 		}
 
-		// Normalize path to start with /
-		final String normalizedPath = path.startsWith( "/" ) ? path : "/" + path;
+		try {
+			final Constructor<? extends WOWebSocketHandler> constructor = handlerClass.getDeclaredConstructor();
+			constructor.setAccessible( true );
+			return MethodHandles.lookup().unreflectConstructor( constructor ).asType( MethodType.methodType( WOWebSocketHandler.class ) );
+		}
+		catch( NoSuchMethodException e ) {
+			throw new IllegalArgumentException( "WebSocket handler class %s must have a no-argument constructor".formatted( handlerClass.getName() ), e );
+		}
+		catch( IllegalAccessException | RuntimeException e ) {
+			throw new IllegalArgumentException( "Unable to access the constructor of WebSocket handler class %s".formatted( handlerClass.getName() ), e );
+		}
+	}
 
-		logger.info( "Registering WebSocket handler {} for path {}", handlerClass.getSimpleName(), normalizedPath );
-		handlers.put( normalizedPath, handlerClass );
+	/**
+	 * Set the executor that runs handler callbacks, instead of the one configured by the JettyWebSocketDispatch property. Each session's callbacks still run one at a time, in order.
+	 *
+	 * @param executor the executor, or null to run callbacks inline on Jetty's threads
+	 */
+	public static void setDispatchExecutor( Executor executor ) {
+		WOWebSocketDispatch.setExecutor( executor );
 	}
 
 	/**
@@ -62,9 +131,9 @@ public class WOWebSocketRegistry {
 	 */
 	public static void unregister( String path ) {
 		String normalizedPath = path.startsWith( "/" ) ? path : "/" + path;
-		Class<? extends WOWebSocketHandler> removed = handlers.remove( normalizedPath );
+		Endpoint removed = handlers.remove( normalizedPath );
 		if( removed != null ) {
-			logger.info( "Unregistered WebSocket handler for path {}", normalizedPath );
+			logger.info( "Unregistered WebSocket handler for path %s".formatted( normalizedPath ) );
 		}
 	}
 
@@ -75,7 +144,8 @@ public class WOWebSocketRegistry {
 	 * @return the handler class, or null if no handler is registered for this path
 	 */
 	public static Class<? extends WOWebSocketHandler> handlerForPath( String path ) {
-		return handlers.get( path );
+		final Endpoint endpoint = handlers.get( path );
+		return endpoint != null ? endpoint.handlerClass() : null;
 	}
 
 	/**
@@ -93,26 +163,41 @@ public class WOWebSocketRegistry {
 	}
 
 	/**
-	 * Create a new instance of the handler for the given path.
+	 * Get a handler for a connection to the given path. A new instance, unless a shared handler is registered for the path.
 	 *
 	 * @param path the URL path
 	 * @param application the WOApplication instance to inject into the handler
-	 * @return a new handler instance, or null if no handler is registered
+	 * @return the handler, or null if no handler is registered (or the handler's constructor failed)
 	 */
 	public static WOWebSocketHandler createHandlerInstance( String path, WOApplication application ) {
-		Class<? extends WOWebSocketHandler> handlerClass = handlerForPath( path );
-		if( handlerClass == null ) {
+		final Endpoint endpoint = handlers.get( path );
+
+		if( endpoint == null ) {
 			return null;
 		}
 
+		if( endpoint.sharedHandler() != null ) {
+			// The application isn't necessarily available at registration time, so it's set here, as for new handlers
+			if( endpoint.sharedHandler().application() != application ) {
+				endpoint.sharedHandler()._setApplication( application );
+			}
+
+			return endpoint.sharedHandler();
+		}
+
 		try {
-			WOWebSocketHandler handler = handlerClass.getDeclaredConstructor().newInstance();
+			final WOWebSocketHandler handler = (WOWebSocketHandler)endpoint.constructor().invokeExact();
 			handler._setApplication( application );
 			return handler;
 		}
-		catch( Exception e ) {
-			logger.error( "Failed to instantiate WebSocket handler {} for path {}", handlerClass.getSimpleName(), path, e );
+		catch( Throwable e ) {
+			logger.error( "Failed to instantiate WebSocket handler %s for path %s".formatted( endpoint.handlerClass().getSimpleName(), path ), e );
 			return null;
 		}
 	}
+
+	/**
+	 * A registered endpoint. Either constructor or sharedHandler is set.
+	 */
+	private record Endpoint( Class<? extends WOWebSocketHandler> handlerClass, MethodHandle constructor, WOWebSocketHandler sharedHandler ) {}
 }
\ No newline at end of file
@@ -0,0 +1,274 @@
+package com.webobjects.appserver.websocket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jetty.util.IteratingCallback;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.common.WebSocketSession;
+import org.eclipse.jetty.websocket.core.Frame;
+import org.eclipse.jetty.websocket.core.OpCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import er.extensions.foundation.ERXProperties;
+
+/**
+ * Outgoing messages of a single WebSocket session.
+ *
+ * Messages are handed to Jetty one at a time, the next one once the previous one has been written. Messages waiting to be written are kept here, where we can see how many bytes are waiting and act on it.
+ * If a limit is set and adding a message would take the bytes waiting past MAX_QUEUED_BYTES, SLOW_CONSUMER_POLICY decides what happens: drop the oldest waiting messages, drop the new message, or disconnect the client.
+ */
+
+class WOWebSocketSendQueue extends IteratingCallback {
+
+	private static final Logger logger = LoggerFactory.getLogger( WOWebSocketSendQueue.class );
+
+	/**
+	 * What to do when a session has too many bytes waiting to be sent
+	 */
+	enum SlowConsumerPolicy {
+
+		/**
+		 * Drop the oldest messages waiting to be sent, to make room for the new one
+		 */
+		DROP_OLDEST,
+
+		/**
+		 * Drop the new message
+		 */
+		DROP_NEWEST,
+
+		/**
+		 * Disconnect the client, dropping all messages waiting to be sent
+		 */
+		CLOSE
+	}
+
+	/**
+	 * Maximum number of bytes waiting to be sent per session, before SLOW_CONSUMER_POLICY kicks in. 0 (the default) for no limit, so nothing is dropped or disconnected unless a limit is set.
+	 */
+	private static final long MAX_QUEUED_BYTES = ERXProperties.longForKeyWithDefault( "JettyWebSocketMaxQueuedBytes", 0 );
+
+	/**
+	 * What to do with a session that has more than MAX_QUEUED_BYTES waiting to be sent. One of drop_oldest, drop_newest or close.
+	 */
+	private static final SlowConsumerPolicy SLOW_CONSUMER_POLICY = SlowConsumerPolicy.valueOf( ERXProperties.stringForKeyWithDefault( "JettyWebSocketSlowConsumerPolicy", "close" ).toUpperCase() );
+
+	private static final LongAdder droppedMessages = new LongAdder();
+	private static final LongAdder slowConsumerDisconnects = new LongAdder();
+
+	private final Session _jettySession;
+
+	/**
+	 * Messages waiting to be sent. Guarded by itself, as are _current, _queuedBytes and _failure.
+	 */
+	private final ArrayDeque<Message> _queue = new ArrayDeque<>();
+
+	/**
+	 * Total size of messages waiting to be sent, including the one being written
+	 */
+	private long _queuedBytes;
+
+	/**
+	 * Set if sending failed (i.e. the connection is gone), after which all messages fail
+	 */
+	private Throwable _failure;
+
+	/**
+	 * The message being written
+	 */
+	private Message _current;
+
+	WOWebSocketSendQueue( final Session jettySession ) {
+		_jettySession = jettySession;
+	}
+
+	/**
+	 * Queue a message for sending
+	 *
+	 * @param payload The encoded payload (UTF-8 bytes for text). Must not be modified until the message has been sent.
+	 * @param future Completed once the message has been written (or has failed). Null if nobody's waiting for the outcome.
+	 */
+	void send( final byte opCode, final ByteBuffer payload, final CompletableFuture<Void> future ) {
+		final Message message = new Message( opCode, payload, future );
+		List<Message> dropped = null;
+		boolean rejected = false;
+		boolean disconnect = false;
+		Throwable failure;
+
+		synchronized( _queue ) {
+			failure = _failure;
+
+			if( failure == null && MAX_QUEUED_BYTES > 0 && _queuedBytes > 0 && _queuedBytes + message.size() > MAX_QUEUED_BYTES ) {
+				dropped = new ArrayList<>();
+
+				switch( SLOW_CONSUMER_POLICY ) {
+					case DROP_OLDEST -> {
+						// Only messages still waiting can be dropped, not the one being written
+						while( !_queue.isEmpty() && _queuedBytes + message.size() > MAX_QUEUED_BYTES ) {
+							final Message oldest = _queue.poll();
+							_queuedBytes -= oldest.size();
+							dropped.add( oldest );
+						}
+					}
+					case DROP_NEWEST -> {
+						dropped.add( message );
+						rejected = true;
+					}
+					case CLOSE -> {
+						dropped.addAll( _queue );
+						dropped.add( message );
+						_queue.clear();
+						_queuedBytes = _current != null ? _current.size() : 0;
+						rejected = true;
+						disconnect = true;
+					}
+				}
+			}
+
+			if( failure == null && !rejected ) {
+				_queue.add( message );
+				_queuedBytes += message.size();
+			}
+		}
+
+		if( failure != null ) {
+			message.fail( failure );
+			return;
+		}
+
+		if( dropped != null && !dropped.isEmpty() ) {
+			droppedMessages.add( dropped.size() );
+			final IOException droppedException = new IOException( "WebSocket message dropped, more than %s bytes waiting to be sent to %s".formatted( MAX_QUEUED_BYTES, _jettySession.getRemoteSocketAddress() ) );
+
+			for( final Message droppedMessage : dropped ) {
+				droppedMessage.fail( droppedException );
+			}
+		}
+
+		if( disconnect ) {
+			slowConsumerDisconnects.increment();
+			logger.warn( "Disconnecting slow WebSocket consumer %s, more than %s bytes waiting to be sent".formatted( _jettySession.getRemoteSocketAddress(), MAX_QUEUED_BYTES ) );
+			_jettySession.disconnect();
+			return;
+		}
+
+		iterate();
+	}
+
+	/**
+	 * @return Total size of messages waiting to be sent, including the one being written
+	 */
+	long queuedBytes() {
+		synchronized( _queue ) {
+			return _queuedBytes;
+		}
+	}
+
+	@Override
+	protected Action process() throws Throwable {
+		final Message message;
+
+		synchronized( _queue ) {
+			message = _current = _queue.poll();
+		}
+
+		if( message == null ) {
+			return Action.IDLE;
+		}
+
+		// Going directly to the core session lets us hand it our encoded payload, rather than having it encode the message again
+		if( _jettySession instanceof WebSocketSession webSocketSession ) {
+			webSocketSession.getCoreSession().sendFrame( new Frame( message.opCode(), message.payload().slice() ), this, false );
+		}
+		else if( message.opCode() == OpCode.TEXT ) {
+			_jettySession.sendText( StandardCharsets.UTF_8.decode( message.payload().slice() ).toString(), org.eclipse.jetty.websocket.api.Callback.from( this::succeeded, this::failed ) );
+		}
+		else {
+			_jettySession.sendBinary( message.payload().slice(), org.eclipse.jetty.websocket.api.Callback.from( this::succeeded, this::failed ) );
+		}
+
+		return Action.SCHEDULED;
+	}
+
+	@Override
+	protected void onSuccess() {
+		final Message sent;
+
+		synchronized( _queue ) {
+			sent = _current;
+			_queuedBytes -= sent.size();
+			_current = null;
+		}
+
+		sent.succeed();
+	}
+
+	@Override
+	protected void onCompleteFailure( final Throwable cause ) {
+		final List<Message> failed;
+
+		synchronized( _queue ) {
+			_failure = cause;
+			failed = new ArrayList<>( _queue.size() + 1 );
+
+			if( _current != null ) {
+				failed.add( _current );
+			}
+
+			failed.addAll( _queue );
+			_queue.clear();
+			_queuedBytes = 0;
+			_current = null;
+		}
+
+		logger.debug( "Sending to WebSocket %s failed, failing %s messages".formatted( _jettySession.getRemoteSocketAddress(), failed.size() ), cause );
+
+		for( final Message message : failed ) {
+			message.fail( cause );
+		}
+	}
+
+	/**
+	 * @return Number of messages dropped (across all sessions) because a client wasn't keeping up
+	 */
+	static long droppedMessageCount() {
+		return droppedMessages.sum();
+	}
+
+	/**
+	 * @return Number of clients disconnected because they weren't keeping up
+	 */
+	static long slowConsumerDisconnectCount() {
+		return slowConsumerDisconnects.sum();
+	}
+
+	private record Message( byte opCode, ByteBuffer payload, CompletableFuture<Void> future ) {
+
+		int size() {
+			return payload.remaining();
+		}
+
+		void succeed() {
+			if( future != null ) {
+				future.complete( null );
+			}
+		}
+
+		void fail( final Throwable cause ) {
+			if( future != null ) {
+				future.completeExceptionally( cause );
+			}
+			else {
+				logger.debug( "Failed to send WebSocket message", cause );
+			}
+		}
+	}
+}
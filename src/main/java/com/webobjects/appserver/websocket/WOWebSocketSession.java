@@ -2,6 +2,7 @@ package com.webobjects.appserver.websocket;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Represents a WebSocket connection session.
@@ -30,6 +31,38 @@ public interface WOWebSocketSession {
 	 */
 	void sendBinary( ByteBuffer data ) throws IOException;
 
+	/**
+	 * Send a text message to the client without blocking
+	 *
+	 * @param message the text message to send
+	 * @return a future completed once the message has been written, or completed exceptionally if it couldn't be sent (e.g. it was dropped because the client isn't keeping up)
+	 */
+	default CompletableFuture<Void> sendTextAsync( String message ) {
+		try {
+			sendText( message );
+			return CompletableFuture.completedFuture( null );
+		}
+		catch( IOException e ) {
+			return CompletableFuture.failedFuture( e );
+		}
+	}
+
+	/**
+	 * Send a binary message to the client without blocking. The buffer's content must not be modified until the returned future completes.
+	 *
+	 * @param data the binary data to send
+	 * @return a future completed once the message has been written, or completed exceptionally if it couldn't be sent (e.g. it was dropped because the client isn't keeping up)
+	 */
+	default CompletableFuture<Void> sendBinaryAsync( ByteBuffer data ) {
+		try {
+			sendBinary( data );
+			return CompletableFuture.completedFuture( null );
+		}
+		catch( IOException e ) {
+			return CompletableFuture.failedFuture( e );
+		}
+	}
+
 	/**
 	 * Close the WebSocket connection
 	 *
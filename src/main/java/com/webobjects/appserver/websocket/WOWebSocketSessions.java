@@ -0,0 +1,294 @@
+package com.webobjects.appserver.websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.eclipse.jetty.websocket.api.Callback;
+import org.eclipse.jetty.websocket.core.OpCode;
+
+/**
+ * Index of open WebSocket sessions.
+ *
+ * Sessions are indexed by the endpoint path they connected to, by the WO session ID (wosid) of their upgrade request (if any) and by a key the application can assign (e.g. a user ID, see setKey()).
+ * The index is maintained by WOJettyWebSocketListener as sessions open and close, and lookups by each key are constant time.
+ * The sets returned by the sessionsFor*() methods are snapshots. The send*() methods go directly to the index, without copying.
+ *
+ * <pre>
+ * // Notify all of a WO session's sockets, e.g. from a component action
+ * WOWebSocketSessions.sendTextToSessionID( session().sessionID(), "refresh" );
+ * </pre>
+ */
+
+public class WOWebSocketSessions {
+
+	private static final Index byPath = new Index();
+	private static final Index bySessionID = new Index();
+	private static final Index byKey = new Index();
+
+	/**
+	 * All open sessions
+	 */
+	private static final Set<WOJettyWebSocketSession> sessions = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Add a newly opened session to the index
+	 */
+	static void add( final WOJettyWebSocketSession session ) {
+		sessions.add( session );
+		byPath.add( session.path(), session );
+		bySessionID.add( session.woSessionID(), session );
+	}
+
+	/**
+	 * Remove a closed session from the index
+	 */
+	static void remove( final WOJettyWebSocketSession session ) {
+		sessions.remove( session );
+		byPath.remove( session.path(), session );
+		bySessionID.remove( session.woSessionID(), session );
+
+		synchronized( session ) {
+			byKey.remove( session.key(), session );
+		}
+	}
+
+	/**
+	 * Assign an application-defined key to a session (e.g. a user ID), for finding it using sessionsForKey(). Replaces any key previously assigned. Null removes the key.
+	 */
+	public static void setKey( final WOWebSocketSession session, final String key ) {
+		final WOJettyWebSocketSession jettySession = jettySession( session );
+
+		synchronized( jettySession ) {
+			byKey.remove( jettySession.key(), jettySession );
+			jettySession.setKey( key );
+
+			// The session might have been removed from the index while we were at it, in which case we mustn't leave it in there
+			if( jettySession.isOpen() ) {
+				byKey.add( key, jettySession );
+			}
+		}
+	}
+
+	/**
+	 * @return Open sessions connected to the given endpoint path
+	 */
+	public static Set<WOWebSocketSession> sessionsForPath( final String path ) {
+		return byPath.get( path );
+	}
+
+	/**
+	 * @return Open sessions whose upgrade request belonged to the given WO session
+	 */
+	public static Set<WOWebSocketSession> sessionsForSessionID( final String sessionID ) {
+		return bySessionID.get( sessionID );
+	}
+
+	/**
+	 * @return Open sessions assigned the given key
+	 */
+	public static Set<WOWebSocketSession> sessionsForKey( final String key ) {
+		return byKey.get( key );
+	}
+
+	/**
+	 * Send a text message to all sessions whose upgrade request belonged to the given WO session
+	 *
+	 * @return The number of sessions the message was sent to
+	 */
+	public static int sendTextToSessionID( final String sessionID, final String message ) {
+		return send( bySessionID.sessions( sessionID ), OpCode.TEXT, encode( message ) );
+	}
+
+	/**
+	 * Send a text message to all sessions assigned the given key
+	 *
+	 * @return The number of sessions the message was sent to
+	 */
+	public static int sendTextToKey( final String key, final String message ) {
+		return send( byKey.sessions( key ), OpCode.TEXT, encode( message ) );
+	}
+
+	/**
+	 * Send a binary message to all sessions assigned the given key. The buffer's content must not be modified afterwards, since it's sent asynchronously.
+	 *
+	 * @return The number of sessions the message was sent to
+	 */
+	public static int sendBinaryToKey( final String key, final ByteBuffer data ) {
+		return send( byKey.sessions( key ), OpCode.BINARY, data );
+	}
+
+	/**
+	 * Start closing all open sessions. Each session gets a reason of it's own from the given supplier (e.g. to spread out clients' reconnects). Doesn't wait for the close handshakes to complete.
+	 *
+	 * @return The number of sessions being closed
+	 */
+	public static int closeAll( final int statusCode, final Supplier<String> reason ) {
+		int count = 0;
+
+		for( final WOJettyWebSocketSession session : sessions ) {
+			if( session.isOpen() ) {
+				session.jettySession().close( statusCode, reason.get(), Callback.NOOP );
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * @return The number of open sessions
+	 */
+	public static int sessionCount() {
+		return sessions.size();
+	}
+
+	/**
+	 * @return The number of open sessions per endpoint path
+	 */
+	public static Map<String, Integer> sessionCountsByPath() {
+		return byPath.counts();
+	}
+
+	/**
+	 * @return The number of distinct WO sessions with open sockets
+	 */
+	public static int sessionIDCount() {
+		return bySessionID.keyCount();
+	}
+
+	/**
+	 * @return The number of distinct application-assigned keys with open sockets
+	 */
+	public static int keyCount() {
+		return byKey.keyCount();
+	}
+
+	/**
+	 * @return Number of outgoing messages dropped because a client wasn't keeping up
+	 */
+	public static long droppedMessageCount() {
+		return WOWebSocketSendQueue.droppedMessageCount();
+	}
+
+	/**
+	 * @return Number of clients disconnected because they weren't keeping up
+	 */
+	public static long slowConsumerDisconnectCount() {
+		return WOWebSocketSendQueue.slowConsumerDisconnectCount();
+	}
+
+	/**
+	 * @return Outgoing payload bytes before permessage-deflate compression, by endpoint path. Only includes sessions that negotiated compression, and is only collected if metrics are enabled or a compression setting requires our own extension.
+	 */
+	public static Map<String, Long> deflateRawBytesByPath() {
+		return WOJettyWebSocketDeflateExtension.rawBytesByPath();
+	}
+
+	/**
+	 * @return Outgoing payload bytes after permessage-deflate compression, by endpoint path. Only includes sessions that negotiated compression, and is only collected if metrics are enabled or a compression setting requires our own extension.
+	 */
+	public static Map<String, Long> deflateWireBytesByPath() {
+		return WOJettyWebSocketDeflateExtension.wireBytesByPath();
+	}
+
+	/**
+	 * @return Number of outgoing messages sent uncompressed for being smaller than JettyWebSocketCompressionMinSize, by endpoint path
+	 */
+	public static Map<String, Long> deflateSkippedMessagesByPath() {
+		return WOJettyWebSocketDeflateExtension.skippedMessagesByPath();
+	}
+
+	/**
+	 * Send an encoded message to the given sessions
+	 */
+	private static int send( final Set<WOJettyWebSocketSession> sessions, final byte opCode, final ByteBuffer payload ) {
+
+		if( sessions == null ) {
+			return 0;
+		}
+
+		int count = 0;
+
+		for( final WOJettyWebSocketSession session : sessions ) {
+			if( session.isOpen() ) {
+				session.sendEncoded( opCode, payload );
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	private static ByteBuffer encode( final String message ) {
+		return ByteBuffer.wrap( message.getBytes( StandardCharsets.UTF_8 ) );
+	}
+
+	private static WOJettyWebSocketSession jettySession( final WOWebSocketSession session ) {
+
+		if( session instanceof WOJettyWebSocketSession jettySession ) {
+			return jettySession;
+		}
+
+		throw new IllegalArgumentException( "The session index only supports WOJettyWebSocketSession, not " + session.getClass().getName() );
+	}
+
+	/**
+	 * Sessions by a single kind of key. Keys are removed once their last session is.
+	 */
+	private static class Index {
+
+		private final Map<String, Set<WOJettyWebSocketSession>> _sessions = new ConcurrentHashMap<>();
+
+		void add( final String key, final WOJettyWebSocketSession session ) {
+
+			if( key == null ) {
+				return;
+			}
+
+			_sessions.compute( key, ( k, sessions ) -> {
+				if( sessions == null ) {
+					sessions = ConcurrentHashMap.newKeySet();
+				}
+
+				sessions.add( session );
+				return sessions;
+			} );
+		}
+
+		void remove( final String key, final WOJettyWebSocketSession session ) {
+
+			if( key == null ) {
+				return;
+			}
+
+			_sessions.computeIfPresent( key, ( k, sessions ) -> {
+				sessions.remove( session );
+				return sessions.isEmpty() ? null : sessions;
+			} );
+		}
+
+		Set<WOJettyWebSocketSession> sessions( final String key ) {
+			return key == null ? null : _sessions.get( key );
+		}
+
+		Set<WOWebSocketSession> get( final String key ) {
+			final Set<WOJettyWebSocketSession> sessions = sessions( key );
+			return sessions == null ? Set.of() : Set.copyOf( sessions );
+		}
+
+		int keyCount() {
+			return _sessions.size();
+		}
+
+		Map<String, Integer> counts() {
+			final Map<String, Integer> counts = new HashMap<>();
+			_sessions.forEach( ( key, sessions ) -> counts.put( key, sessions.size() ) );
+			return counts;
+		}
+	}
+}
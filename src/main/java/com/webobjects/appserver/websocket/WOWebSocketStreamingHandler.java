@@ -0,0 +1,45 @@
+package com.webobjects.appserver.websocket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Base class for WebSocket handlers that receive messages in fragments, as they arrive, rather than whole.
+ *
+ * Use for large messages (file uploads, imports) that you'd rather not have buffered in memory in their entirety. Fragments are delivered in order, and the next one is only read from the socket once you've returned from the previous one.
+ * The size of a streamed message is limited by JettyWebSocketMaxStreamedMessageSize rather than Jetty's maximum message sizes.
+ * onTextMessage() and onBinaryMessage() are never invoked for a streaming handler.
+ *
+ * Example:
+ * <pre>
+ * public class UploadHandler extends WOWebSocketStreamingHandler {
+ *     {@literal @}Override
+ *     public void onBinaryFragment(WOWebSocketSession session, ByteBuffer fragment, boolean last) {
+ *         channel(session).write(fragment);
+ *
+ *         if (last) {
+ *             session.sendText("done");
+ *         }
+ *     }
+ * }
+ * </pre>
+ */
+public abstract class WOWebSocketStreamingHandler extends WOWebSocketHandler {
+
+	/**
+	 * Called for each fragment of a text message received from the client.
+	 *
+	 * @param session the WebSocket session
+	 * @param fragment the text received since the previous fragment. Characters are never split across fragments.
+	 * @param last true if this is the message's last fragment
+	 */
+	public void onTextFragment( WOWebSocketSession session, String fragment, boolean last ) {}
+
+	/**
+	 * Called for each fragment of a binary message received from the client.
+	 *
+	 * @param session the WebSocket session
+	 * @param fragment the data received since the previous fragment. Only valid until this method returns, so copy anything you need to keep.
+	 * @param last true if this is the message's last fragment
+	 */
+	public void onBinaryFragment( WOWebSocketSession session, ByteBuffer fragment, boolean last ) {}
+}
@@ -0,0 +1,148 @@
+package com.webobjects.appserver.websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jetty.websocket.core.OpCode;
+
+/**
+ * Publish/subscribe for WebSocket sessions.
+ *
+ * Sessions subscribe to named topics, and a message published to a topic is sent to all of it's subscribers.
+ * The message is encoded once per publish (not once per subscriber) and sent without blocking the publishing thread.
+ * Sessions are unsubscribed from all their topics automatically when they close.
+ *
+ * <pre>
+ * public void onConnect( WOWebSocketSession session, WOWebSocketHandshakeRequest request ) {
+ *     WOWebSocketTopics.subscribe( "dashboard", session );
+ * }
+ *
+ * // Anywhere in the application
+ * WOWebSocketTopics.publish( "dashboard", json );
+ * </pre>
+ */
+
+public class WOWebSocketTopics {
+
+	/**
+	 * Topic name -> subscribed sessions. Topics are removed once their last subscriber leaves.
+	 */
+	private static final Map<String, Set<WOJettyWebSocketSession>> topics = new ConcurrentHashMap<>();
+
+	/**
+	 * Subscribe the given session to a topic
+	 */
+	public static void subscribe( final String topic, final WOWebSocketSession session ) {
+		final WOJettyWebSocketSession jettySession = jettySession( session );
+
+		topics.compute( topic, ( name, subscribers ) -> {
+			if( subscribers == null ) {
+				subscribers = ConcurrentHashMap.newKeySet();
+			}
+
+			subscribers.add( jettySession );
+			return subscribers;
+		} );
+
+		jettySession.topics().add( topic );
+
+		// If the session closed while we were subscribing, it's unsubscribeAll() may have run already, so we clean up after ourselves
+		if( !jettySession.isOpen() ) {
+			unsubscribe( topic, jettySession );
+		}
+	}
+
+	/**
+	 * Unsubscribe the given session from a topic
+	 */
+	public static void unsubscribe( final String topic, final WOWebSocketSession session ) {
+		final WOJettyWebSocketSession jettySession = jettySession( session );
+		jettySession.topics().remove( topic );
+		removeSubscriber( topic, jettySession );
+	}
+
+	/**
+	 * Unsubscribe the given session from all it's topics. Invoked automatically when a session closes.
+	 */
+	static void unsubscribeAll( final WOJettyWebSocketSession session ) {
+		for( final String topic : session.topics() ) {
+			removeSubscriber( topic, session );
+		}
+
+		session.topics().clear();
+	}
+
+	/**
+	 * Remove a subscriber from a topic, removing the topic if it was the last subscriber. Done within compute() so we don't race with a concurrent subscribe.
+	 */
+	private static void removeSubscriber( final String topic, final WOJettyWebSocketSession session ) {
+		topics.computeIfPresent( topic, ( name, subscribers ) -> {
+			subscribers.remove( session );
+			return subscribers.isEmpty() ? null : subscribers;
+		} );
+	}
+
+	/**
+	 * Send a text message to all subscribers of the given topic
+	 *
+	 * @return The number of subscribers the message was sent to
+	 */
+	public static int publish( final String topic, final String message ) {
+		return publish( topic, OpCode.TEXT, ByteBuffer.wrap( message.getBytes( StandardCharsets.UTF_8 ) ) );
+	}
+
+	/**
+	 * Send a binary message to all subscribers of the given topic. The buffer's content must not be modified afterwards, since it's sent asynchronously.
+	 *
+	 * @return The number of subscribers the message was sent to
+	 */
+	public static int publish( final String topic, final ByteBuffer data ) {
+		return publish( topic, OpCode.BINARY, data );
+	}
+
+	private static int publish( final String topic, final byte opCode, final ByteBuffer payload ) {
+		final Set<WOJettyWebSocketSession> subscribers = topics.get( topic );
+
+		if( subscribers == null ) {
+			return 0;
+		}
+
+		int count = 0;
+
+		for( final WOJettyWebSocketSession session : subscribers ) {
+			if( session.isOpen() ) {
+				session.sendEncoded( opCode, payload );
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * @return The number of sessions subscribed to the given topic
+	 */
+	public static int subscriberCount( final String topic ) {
+		final Set<WOJettyWebSocketSession> subscribers = topics.get( topic );
+		return subscribers == null ? 0 : subscribers.size();
+	}
+
+	/**
+	 * @return Names of all topics that currently have subscribers
+	 */
+	public static Set<String> topicNames() {
+		return Set.copyOf( topics.keySet() );
+	}
+
+	private static WOJettyWebSocketSession jettySession( final WOWebSocketSession session ) {
+
+		if( session instanceof WOJettyWebSocketSession jettySession ) {
+			return jettySession;
+		}
+
+		throw new IllegalArgumentException( "Topics are only supported for WOJettyWebSocketSession, not " + session.getClass().getName() );
+	}
+}
@@ -50,9 +50,9 @@ public class EchoWebSocketHandler extends WOWebSocketHandler {
 	@Override
 	public void onConnect( WOWebSocketSession session, WORequest initiatingRequest ) {
 
-		logger.info( "WebSocket connected: {}", session.getRemoteAddress() );
+		logger.info( "WebSocket connected: %s".formatted( session.getRemoteAddress() ) );
 
-		// Start a heartbeat to keep the connection alive (send "ping" every 2 minutes)
+		// Start a heartbeat to keep the connection alive (send a ping frame every 2 minutes)
 		startHeartbeat( session, 120 );
 
 		// Send a welcome message
@@ -67,13 +67,7 @@ public class EchoWebSocketHandler extends WOWebSocketHandler {
 	@Override
 	public void onTextMessage( WOWebSocketSession session, String message ) {
 
-		// Filter out heartbeat messages
-		if( isHeartbeatMessage( session, message ) ) {
-			logger.debug( "Received heartbeat: {}", message );
-			return;
-		}
-
-		logger.debug( "Received text message: {}", message );
+		logger.debug( "Received text message: %s".formatted( message ) );
 
 		// Echo the message back with a prefix
 		try {
@@ -86,7 +80,7 @@ public class EchoWebSocketHandler extends WOWebSocketHandler {
 
 	@Override
 	public void onBinaryMessage( WOWebSocketSession session, ByteBuffer data ) {
-		logger.debug( "Received binary message of {} bytes", data.remaining() );
+		logger.debug( "Received binary message of %s bytes".formatted( data.remaining() ) );
 
 		// Echo the binary data back
 		try {
@@ -100,7 +94,7 @@ public class EchoWebSocketHandler extends WOWebSocketHandler {
 
 	@Override
 	public void onClose( WOWebSocketSession session, int statusCode, String reason ) {
-		logger.info( "WebSocket closed: {} (status={}, reason={})", session.getRemoteAddress(), statusCode, reason );
+		logger.info( "WebSocket closed: %s (status=%s, reason=%s)".formatted( session.getRemoteAddress(), statusCode, reason ) );
 		// Heartbeat is automatically stopped when connection closes
 		stopHeartbeat( session );
 	}